@@ -3,6 +3,8 @@ module ChapterGenerator {
     requires javafx.graphics;
     requires javafx.controls;
     requires control;
+    // The export emits Flight Recorder events, the automatic control module cannot require it itself
+    requires jdk.jfr;
     opens ui to javafx.graphics;
     exports ui;
 }
@@ -0,0 +1,90 @@
+package ui;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import model.AsyncMessageObserver;
+import model.ExportMetrics;
+import model.ExportProgress;
+import model.MarkdownFileStructureGenerator;
+import model.MessageEvent;
+import model.MessageObserver;
+import model.WebsiteSidebarTextGenerator;
+
+import java.io.IOException;
+
+/**
+ * Runs the sidebar generation or the export of one vault in the background, away from the JavaFX thread.
+ * <p>
+ * The sidebar is only generated as text unless {@code updateConfiguration} is set, then it is written into the
+ * {@code sidebar.contents} of the vault's {@code _quarto.yml} as well, like {@code sidebar--true} on the command line.
+ * <p>
+ * The export is cancelled cooperatively: {@link #cancel} asks the generator to stop, which it does between two
+ * lines of a note without leaving temporary files behind. The task thread is never interrupted, because an
+ * interrupt would close the file channels of the files being copied. {@code whenDone} runs on the JavaFX thread
+ * once the background work has really ended, which for a cancelled task is later than the state change.
+ */
+class ExportTask extends Task<String> {
+
+    private final String path;
+    private final boolean generateRepository;
+    private final boolean updateConfiguration;
+    private final AsyncMessageObserver observer;
+    private final MarkdownFileStructureGenerator generator;
+    private final Runnable whenDone;
+
+    ExportTask(String path, boolean generateRepository, boolean updateConfiguration, MessageObserver observer,
+               Runnable whenDone) {
+        this.path = path;
+        this.generateRepository = generateRepository;
+        this.updateConfiguration = updateConfiguration;
+        this.observer = new AsyncMessageObserver(observer);
+        this.generator = new MarkdownFileStructureGenerator(this.observer);
+        this.whenDone = whenDone;
+    }
+
+    ExportProgress getExportProgress() {
+        return generator.getProgress();
+    }
+
+    @Override
+    protected String call() throws Exception {
+        try {
+            if (!generateRepository) {
+                return updateConfiguration ? updateSidebar() : generateSidebar();
+            }
+            generator.generateFileStructure(path);
+            return "";
+        } finally {
+            observer.close();
+            Platform.runLater(whenDone);
+        }
+    }
+
+    private String generateSidebar() {
+        ExportMetrics metrics = generator.getMetrics();
+        String sidebar = WebsiteSidebarTextGenerator.generateSidebarText(path, metrics);
+        notifySidebarStage(metrics);
+        return sidebar;
+    }
+
+    private String updateSidebar() throws IOException {
+        ExportMetrics metrics = generator.getMetrics();
+        WebsiteSidebarTextGenerator.SidebarUpdate update = WebsiteSidebarTextGenerator.updateSidebar(path, metrics);
+        notifySidebarStage(metrics);
+        if (update.configuration() == WebsiteSidebarTextGenerator.ConfigurationUpdate.UPDATED) {
+            observer.notify(MessageEvent.info(MessageEvent.Type.SIDEBAR_CHANGED, null,
+                    () -> "Updated the sidebar in _quarto.yml"));
+        }
+        return update.sidebar();
+    }
+
+    private void notifySidebarStage(ExportMetrics metrics) {
+        observer.notify(MessageEvent.info(MessageEvent.Type.STAGE_FINISHED, null, () -> metrics.summary().get(0)));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        generator.cancel();
+        return super.cancel(false);
+    }
+}
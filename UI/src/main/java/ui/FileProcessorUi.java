@@ -1,23 +1,41 @@
 package ui;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import model.MarkdownFileStructureGenerator;
-import model.WebsiteSidebarTextGenerator;
+import javafx.util.Duration;
+import model.ExportProgress;
 
-import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class FileProcessorUi extends Application {
     private static String pathName = null;
     private static boolean checkboxValue = false;
+    // The log and the progress are pushed to the window at this rate, not once per message
+    private static final Duration FRAME_INTERVAL = Duration.millis(100);
     TextArea outputArea = new TextArea();
+    private final Queue<String> pendingOutput = new ConcurrentLinkedQueue<>();
+    private final Label statusLabel = new Label("Status: Warten auf Eingabe");
+    private final ProgressBar progressBar = new ProgressBar(0);
+    private final Label progressLabel = new Label();
+    private final Button okButton = new Button("OK");
+    private final Button cancelButton = new Button("Abbrechen");
+    private ExportTask runningTask;
+
+    /**
+     * Can be called from any thread, the text is shown with the next frame.
+     */
     public void addTextToField(String inputText) {
-        outputArea.appendText(System.lineSeparator() + inputText);
+        pendingOutput.add(inputText);
     }
     @Override
     public void start(Stage primaryStage) {
@@ -28,12 +46,14 @@ public class FileProcessorUi extends Application {
             pathField.setText(pathName);
         }
 
-        Button okButton = new Button("OK");
-
         CheckBox generateNewMdDirectory = new CheckBox("Generiere neues Repository mit Markdown fixes. ACHTUNG NUR WENN DU WEIßT WAS DU TUST");
         generateNewMdDirectory.setSelected(checkboxValue);
+        // Only for the sidebar: without it the sidebar is just shown, the vault stays as it is
+        CheckBox updateQuartoConfiguration = new CheckBox("Sidebar zusätzlich in die _quarto.yml des Vaults schreiben");
+        updateQuartoConfiguration.disableProperty().bind(generateNewMdDirectory.selectedProperty());
 
-        Label statusLabel = new Label("Status: Warten auf Eingabe");
+        cancelButton.setDisable(true);
+        progressBar.setMaxWidth(Double.MAX_VALUE);
 
         outputArea = new TextArea();
         outputArea.setEditable(false);
@@ -48,31 +68,23 @@ public class FileProcessorUi extends Application {
         });
 
         // OK-Button-Event-Handler
-        okButton.setOnAction(event -> {
-            String path = pathField.getText();
-            try {
-                String content = "";
-                if (!generateNewMdDirectory.isSelected()) {
-                    content = processFile(path);
-                    outputArea.clear();
-                    statusLabel.setText("berechnet website content Struktur...");
-                } else {
-                    statusLabel.setText("berechnet neues Repository...");
-                    MarkdownFileStructureGenerator generator = new MarkdownFileStructureGenerator(new TextFieldMessageObserver(this));
-                    generator.generateFileStructure(path);
-                }
-                outputArea.appendText(content);
-            } catch (Exception e) {
-                outputArea.setText("Fehler: " + e.getMessage() + "\n");
-                e.printStackTrace();
-                for (StackTraceElement ste : e.getStackTrace()) {
-                    outputArea.appendText(ste.toString() + "\n");
-                }
+        okButton.setOnAction(event -> startTask(pathField.getText(), generateNewMdDirectory.isSelected(),
+                updateQuartoConfiguration.isSelected()));
+        cancelButton.setOnAction(event -> {
+            if (runningTask != null) {
+                runningTask.cancel();
+                statusLabel.setText("wird abgebrochen...");
             }
         });
 
+        Timeline frameTimer = new Timeline(new KeyFrame(FRAME_INTERVAL, event -> showFrame()));
+        frameTimer.setCycleCount(Timeline.INDEFINITE);
+        frameTimer.play();
+
         // Layout
-        VBox root = new VBox(10, new Label("Dateipfad:"), statusLabel, pathField, generateNewMdDirectory, okButton, new Label("Output:"), outputArea);
+        VBox root = new VBox(10, new Label("Dateipfad:"), statusLabel, pathField, generateNewMdDirectory,
+                updateQuartoConfiguration, new HBox(10, okButton, cancelButton), progressBar, progressLabel,
+                new Label("Output:"), outputArea);
         Scene scene = new Scene(root, 600, 400);
 
         // Stage-Einstellungen
@@ -81,10 +93,66 @@ public class FileProcessorUi extends Application {
         primaryStage.show();
     }
 
-    // Beispielmethode zur Dateiverarbeitung
-    private String processFile(String path) throws IOException {
-        // In dieser Beispielmethode lesen wir einfach den Inhalt der Datei.
-        return WebsiteSidebarTextGenerator.generateSidebarText(path);
+    private void startTask(String path, boolean generateRepository, boolean updateConfiguration) {
+        outputArea.clear();
+        pendingOutput.clear();
+        statusLabel.setText(generateRepository ? "berechnet neues Repository..." : "berechnet website content Struktur...");
+        okButton.setDisable(true);
+        cancelButton.setDisable(false);
+
+        ExportTask task = new ExportTask(path, generateRepository, updateConfiguration, new TextFieldMessageObserver(this), () -> {
+            okButton.setDisable(false);
+            cancelButton.setDisable(true);
+            runningTask = null;
+            showFrame();
+        });
+        task.setOnSucceeded(event -> {
+            statusLabel.setText("Status: Fertig");
+            addTextToField(task.getValue());
+        });
+        task.setOnCancelled(event -> statusLabel.setText("Status: Abgebrochen"));
+        task.setOnFailed(event -> {
+            Throwable e = task.getException();
+            if (e instanceof InterruptedIOException) {
+                statusLabel.setText("Status: Abgebrochen");
+                return;
+            }
+            statusLabel.setText("Status: Fehler");
+            StringBuilder text = new StringBuilder("Fehler: " + e.getMessage() + "\n");
+            for (StackTraceElement ste : e.getStackTrace()) {
+                text.append(ste.toString()).append("\n");
+            }
+            addTextToField(text.toString());
+        });
+        runningTask = task;
+
+        Thread thread = new Thread(task, "export");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Appends everything logged since the last frame in one block and shows the progress of the running task.
+     */
+    private void showFrame() {
+        if (!pendingOutput.isEmpty()) {
+            StringBuilder text = new StringBuilder();
+            String line;
+            while ((line = pendingOutput.poll()) != null) {
+                if (!outputArea.getText().isEmpty() || !text.isEmpty()) {
+                    text.append(System.lineSeparator());
+                }
+                text.append(line);
+            }
+            outputArea.appendText(text.toString());
+        }
+        if (runningTask != null) {
+            ExportProgress progress = runningTask.getExportProgress();
+            progressBar.setProgress(progress.fraction() < 0 ? ProgressBar.INDETERMINATE_PROGRESS : progress.fraction());
+            progressLabel.setText(String.format("%d Dateien gefunden, %d kopiert, %d transformiert von %d, %.0f Dateien/s",
+                    progress.discoveredFiles(), progress.copiedFiles(), progress.transformedFiles(),
+                    progress.scheduledFiles(), progress.filesPerSecond()));
+        }
     }
 
 
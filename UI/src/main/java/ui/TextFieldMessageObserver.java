@@ -1,7 +1,10 @@
 package ui;
 
+import model.MessageEvent;
 import model.MessageObserver;
 
+import java.util.List;
+
 public class TextFieldMessageObserver extends MessageObserver {
 
     private final FileProcessorUi ui;
@@ -14,4 +17,17 @@ public class TextFieldMessageObserver extends MessageObserver {
     public void notify(String updateText) {
         ui.addTextToField(updateText);
     }
+
+    @Override
+    public void notifyBatch(List<MessageEvent> events) {
+        // The window appends its pending text once per frame, a batch is queued as one block
+        StringBuilder text = new StringBuilder();
+        for (MessageEvent event : events) {
+            if (!text.isEmpty()) {
+                text.append(System.lineSeparator());
+            }
+            text.append(event.text());
+        }
+        notify(text.toString());
+    }
 }
@@ -0,0 +1,76 @@
+package benchmark;
+
+import model.MarkdownFileStructureGenerator;
+import model.MessageObserver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full exports of a vault that consists mostly of images, many of them the same screenshot pasted into several
+ * folders. Compares plain copies with the content-addressed asset store, which is kept between the runs like it
+ * is between two exports of the same vault.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssetBenchmark {
+
+    @Param({"400"})
+    public int imageCount;
+
+    @Param({"256"})
+    public int imageKb;
+
+    /**
+     * Share of the images that are distinct, the others repeat one of them.
+     */
+    @Param({"0.1", "1.0"})
+    public double uniqueShare;
+
+    @Param({"false", "true"})
+    public boolean deduplicate;
+
+    private Path vault;
+    private MarkdownFileStructureGenerator generator;
+
+    @Setup(Level.Trial)
+    public void createVault() throws IOException {
+        vault = Files.createTempDirectory("asset-benchmark");
+        Random random = new Random(imageCount);
+        int uniqueCount = Math.max(1, (int) (imageCount * uniqueShare));
+        byte[][] images = new byte[uniqueCount][imageKb << 10];
+        for (byte[] image : images) {
+            random.nextBytes(image);
+        }
+        for (int i = 0; i < imageCount; i++) {
+            Path directory = Files.createDirectories(vault.resolve((i % 20 + 1) + " Chapter"));
+            Files.write(directory.resolve("Screenshot " + i + ".png"), images[i % uniqueCount]);
+            Files.writeString(directory.resolve(SyntheticNotes.noteName(i) + ".md"),
+                    "# Note " + i + "\n\n![[Screenshot " + i + ".png]]\n");
+        }
+        generator = new MarkdownFileStructureGenerator(new MessageObserver() {
+            @Override
+            public void notify(String updateText) {
+            }
+        });
+        generator.setDeduplicateAssets(deduplicate);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteVault() throws IOException {
+        SyntheticVault.delete(vault);
+    }
+
+    @Benchmark
+    public void generateFileStructure() throws IOException {
+        generator.generateFileStructure(vault.toString());
+    }
+}
@@ -0,0 +1,99 @@
+package benchmark;
+
+import model.MarkdownFileStructureGenerator;
+import model.MessageObserver;
+import model.WebsiteSidebarTextGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete runs of the export and of the sidebar generation on a synthetic vault.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"500", "2000"})
+    public int noteCount;
+
+    @Param({"2", "4"})
+    public int depth;
+
+    @Param({"0.2"})
+    public double linkDensity;
+
+    @Param({"2"})
+    public int calloutNesting;
+
+    /**
+     * Where the export goes: {@code exportFiles} inside the vault, or a zip archive that is written in one go when
+     * its file system is closed.
+     */
+    @Param({"vault", "zip"})
+    public String target;
+
+    /**
+     * Whether the export also writes the tags, backlinks and search terms of the notes for the site.
+     */
+    @Param({"false", "true"})
+    public boolean siteIndex;
+
+    private Path vault;
+    private Path archive;
+    private MarkdownFileStructureGenerator generator;
+
+    @Setup(Level.Trial)
+    public void createVault() throws IOException {
+        vault = Files.createTempDirectory("export-benchmark");
+        SyntheticVault.create(vault, new SyntheticVault.Shape(noteCount, depth, linkDensity, calloutNesting));
+        archive = vault.resolveSibling(vault.getFileName() + ".zip");
+        generator = new MarkdownFileStructureGenerator(new MessageObserver() {
+            @Override
+            public void notify(String updateText) {
+            }
+        });
+        generator.setSiteIndex(siteIndex);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteVault() throws IOException {
+        SyntheticVault.delete(vault);
+        Files.deleteIfExists(archive);
+    }
+
+    @Benchmark
+    public void generateFileStructure() throws IOException {
+        if (!target.equals("zip")) {
+            generator.generateFileStructure(vault.toString());
+            return;
+        }
+        try (FileSystem archiveFileSystem = FileSystems.newFileSystem(archive, Map.of("create", "true"))) {
+            generator.setTargetDirectory(archiveFileSystem.getPath("/"));
+            generator.generateFileStructure(vault.toString());
+        }
+    }
+
+    @Benchmark
+    public String generateSidebarText() {
+        return WebsiteSidebarTextGenerator.generateSidebarText(vault.toString());
+    }
+
+    /**
+     * The sidebar from the directory listings of the invocations before, the vault does not change in between.
+     */
+    @Benchmark
+    public WebsiteSidebarTextGenerator.SidebarUpdate updateSidebar() throws IOException {
+        return WebsiteSidebarTextGenerator.updateSidebar(vault.toString(), null);
+    }
+}
@@ -0,0 +1,143 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The note conversion as it was before {@link model.QuartoNoteTransformer}: three {@code Pattern.compile}
+ * calls per line and a string copy to count the callout depth. Only kept as a baseline for the benchmarks.
+ * The nested callout title is read from the nested matcher, the original threw an exception there.
+ */
+public class LegacyNoteConverter {
+
+    private final Map<String, String> fileLinksMap;
+    private final Map<String, String> calloutTitleMap = new HashMap<>();
+
+    public LegacyNoteConverter(Map<String, String> fileLinksMap) {
+        this.fileLinksMap = fileLinksMap;
+        calloutTitleMap.put("info", "note");
+        calloutTitleMap.put("abstract", "note");
+        calloutTitleMap.put("todo", "note");
+        calloutTitleMap.put("success", "tip");
+        calloutTitleMap.put("question", "caution");
+        calloutTitleMap.put("failure", "important");
+        calloutTitleMap.put("danger", "important");
+        calloutTitleMap.put("bug", "important");
+        calloutTitleMap.put("example", "note");
+        calloutTitleMap.put("quote", "tip");
+    }
+
+    public void convert(BufferedReader reader, Writer writer, String date) throws IOException {
+        boolean isInTags = false;
+        boolean hasSeenTags = false;
+        int calloutDepth = 0;
+        String line;
+
+        writer.write("---\n");
+        writer.write("date: " + date + "\n");
+        if (!reader.ready()) {
+            writer.write("---");
+        }
+
+        while ((line = reader.readLine()) != null) {
+            if (line.equals("<!--IGNORED_FILE-->")) {
+                return;
+            }
+            if (line.equals("<!--TAGS-->")) {
+                isInTags = true;
+                hasSeenTags = true;
+                reader.readLine();
+                continue;
+            }
+            if (line.equals("<!--/TAGS-->")) {
+                isInTags = false;
+                continue;
+            }
+            if (!hasSeenTags) {
+                while (line.isEmpty() && reader.ready() && (line = reader.readLine()).isEmpty()) {
+                }
+                writer.write("---\n");
+                hasSeenTags = true;
+            }
+            if (line.equals("TARGET DECK")) {
+                reader.readLine();
+                reader.readLine();
+                writer.write("## " + reader.readLine() + "\n\n");
+                reader.readLine();
+                continue;
+            }
+            if (isInTags) {
+                writer.write(line + "\n");
+                continue;
+            }
+
+            String modifiedLine = replaceMarkdownLinks(line);
+
+            Pattern calloutPattern = Pattern.compile("\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
+            Pattern nestedCalloutPattern = Pattern.compile("\\s*>\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
+            Matcher matcher = calloutPattern.matcher(modifiedLine);
+            Matcher nestedMatcher = nestedCalloutPattern.matcher(modifiedLine);
+
+            if (nestedMatcher.find()) {
+                String calloutType = quartoCalloutTitle(nestedMatcher.group(1));
+                String title = nestedMatcher.group(2).trim();
+                writer.write("::: {.callout-" + calloutType + " title=\"" + title + "\"}\n");
+                calloutDepth = 2;
+                continue;
+            } else if (matcher.find()) {
+                String calloutType = quartoCalloutTitle(matcher.group(1));
+                String title = matcher.group(2).trim();
+                writer.write("::: {.callout-" + calloutType + " title=\"" + title + "\"}\n");
+                calloutDepth = 1;
+                continue;
+            }
+            int geCharCount = modifiedLine.length() - modifiedLine.replace(">", "").length();
+            if (geCharCount < calloutDepth) {
+                for (int i = 0; i < calloutDepth - geCharCount; i++) {
+                    writer.write(":::\n\n");
+                }
+                calloutDepth = geCharCount;
+            }
+            if (calloutDepth > 0) {
+                modifiedLine = modifiedLine.replace(">", "");
+            }
+            writer.write(modifiedLine + "\n");
+            if (!line.isEmpty()) {
+                writer.write("\n");
+            }
+        }
+    }
+
+    private String replaceMarkdownLinks(String line) {
+        Pattern pattern = Pattern.compile("\\[\\[([^\\]]+)\\]\\]");
+        Matcher matcher = pattern.matcher(line);
+        StringBuilder result = new StringBuilder();
+
+        while (matcher.find()) {
+            String linkText = matcher.group(1);
+            if (fileLinksMap.containsKey(linkText)) {
+                String replacement = "[" + linkText + "](" + fileLinksMap.get(linkText) + ")";
+                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+            } else if (linkText.endsWith(".png") || linkText.endsWith(".jpg")) {
+                String replacement = "[](</" + linkText + ">)";
+                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+            } else {
+                matcher.appendReplacement(result, Matcher.quoteReplacement(matcher.group(0)));
+            }
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private String quartoCalloutTitle(String input) {
+        if (calloutTitleMap.containsKey(input.toLowerCase())) {
+            return calloutTitleMap.get(input);
+        }
+        return input;
+    }
+}
@@ -0,0 +1,73 @@
+package benchmark;
+
+import model.MessageObserver;
+import model.QuartoNoteTransformer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines per second of the note conversion, the current transformer against the old per-line
+ * {@code Pattern.compile} version. Run with {@code -prof gc} to get the bytes allocated per line
+ * ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineTransformerBenchmark {
+
+    private static final int LINES = 1000;
+    private static final int NOTES = 500;
+
+    @Param({"0.05", "0.3"})
+    public double linkDensity;
+
+    @Param({"0.02", "0.2"})
+    public double calloutDensity;
+
+    private String note;
+    private Map<String, String> links;
+    private QuartoNoteTransformer transformer;
+    private LegacyNoteConverter legacy;
+    private final Writer sink = Writer.nullWriter();
+    private final MessageObserver observer = new MessageObserver() {
+        @Override
+        public void notify(String updateText) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        links = SyntheticNotes.linkMap(NOTES);
+        note = SyntheticNotes.note(42, LINES, NOTES, linkDensity, calloutDensity, 2);
+        transformer = new QuartoNoteTransformer(SyntheticNotes.linkIndex(NOTES));
+        legacy = new LegacyNoteConverter(links);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void transformer() throws IOException {
+        BufferedReader reader = new BufferedReader(new StringReader(note));
+        transformer.begin(sink, "2024-01-01", new HashSet<>(), observer);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            transformer.accept(line);
+        }
+        transformer.finish();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void legacy() throws IOException {
+        legacy.convert(new BufferedReader(new StringReader(note)), sink, "2024-01-01");
+    }
+}
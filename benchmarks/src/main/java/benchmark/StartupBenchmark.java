@@ -0,0 +1,127 @@
+package benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time to the first exported file and to the end of the export of a fresh command line process, for the plain
+ * jar, the jar with its class data sharing archive and the native image, whichever of them are built. JMH only
+ * measures inside a running JVM, so this starts the processes itself:
+ * {@code java -cp benchmarks.jar benchmark.StartupBenchmark <chaptergenerator.jar> [native image] [runs] [notes]}.
+ * <p>
+ * The archive is expected next to the jar as {@code chaptergenerator.jsa}, see {@code mvn -Pcds package}. The
+ * first file is the first one the export reports as written on its output. The variants take turns, so a
+ * change of machine load affects all of them alike, and every variant has one unmeasured run first.
+ */
+public final class StartupBenchmark {
+
+    private static final String ARCHIVE_FILE_NAME = "chaptergenerator.jsa";
+    private static final List<String> WRITTEN_FILE_MESSAGES = List.of("Copied file from", "Stored file from",
+            "Linked file from", "Made changes to");
+
+    private record Variant(String name, List<String> command) {
+    }
+
+    private record Run(long firstFileNanos, long totalNanos) {
+    }
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            System.out.println("usage: StartupBenchmark <chaptergenerator.jar> [native image] [runs] [notes]");
+            return;
+        }
+        Path jar = Path.of(args[0]).toAbsolutePath();
+        Path nativeImage = args.length > 1 && !args[1].equals("-") ? Path.of(args[1]).toAbsolutePath() : null;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int notes = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant("jvm", List.of(java, "-jar", jar.toString())));
+        Path archive = jar.resolveSibling(ARCHIVE_FILE_NAME);
+        if (Files.exists(archive)) {
+            variants.add(new Variant("appcds", List.of(java, "-XX:SharedArchiveFile=" + archive, "-jar",
+                    jar.toString())));
+        } else {
+            System.out.println("No " + archive + ", skipping appcds");
+        }
+        if (nativeImage != null) {
+            variants.add(new Variant("native", List.of(nativeImage.toString())));
+        }
+
+        Path vault = Files.createTempDirectory("startup-benchmark");
+        try {
+            SyntheticVault.create(vault, new SyntheticVault.Shape(notes, 2, 0.2, 2));
+            long[][] firstFile = new long[variants.size()][runs];
+            long[][] total = new long[variants.size()][runs];
+            for (Variant variant : variants) {
+                run(variant, vault);
+            }
+            for (int i = 0; i < runs; i++) {
+                for (int v = 0; v < variants.size(); v++) {
+                    Run run = run(variants.get(v), vault);
+                    firstFile[v][i] = run.firstFileNanos();
+                    total[v][i] = run.totalNanos();
+                }
+            }
+
+            System.out.println("variant\tfirst file median ms\tfirst file min ms\ttotal median ms\ttotal min ms");
+            for (int v = 0; v < variants.size(); v++) {
+                Arrays.sort(firstFile[v]);
+                Arrays.sort(total[v]);
+                System.out.println(variants.get(v).name() + '\t' + millis(firstFile[v][runs / 2]) + '\t'
+                        + millis(firstFile[v][0]) + '\t' + millis(total[v][runs / 2]) + '\t' + millis(total[v][0]));
+            }
+        } finally {
+            SyntheticVault.delete(vault);
+        }
+    }
+
+    private static Run run(Variant variant, Path vault) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(variant.command());
+        command.add("ui--false");
+        command.add(vault.toString());
+        long startNanos = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long firstFileNanos = -1;
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = output.readLine()) != null) {
+                if (firstFileNanos < 0 && reportsWrittenFile(line)) {
+                    firstFileNanos = System.nanoTime() - startNanos;
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        long totalNanos = System.nanoTime() - startNanos;
+        if (exitCode != 0 || firstFileNanos < 0) {
+            throw new IllegalStateException(variant.name() + " exited with " + exitCode
+                    + (firstFileNanos < 0 ? " without writing a file" : ""));
+        }
+        return new Run(firstFileNanos, totalNanos);
+    }
+
+    private static boolean reportsWrittenFile(String line) {
+        for (String message : WRITTEN_FILE_MESSAGES) {
+            if (line.contains(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String millis(long nanos) {
+        return Long.toString(nanos / 1_000_000);
+    }
+}
@@ -0,0 +1,101 @@
+package benchmark;
+
+import model.VaultLinkIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates reproducible Obsidian notes for the benchmarks.
+ */
+public final class SyntheticNotes {
+
+    private static final String[] WORDS = {
+            "Lorem", "ipsum", "dolor", "sit", "amet", "consectetur", "adipiscing", "elit", "sed", "do",
+            "eiusmod", "tempor", "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua"
+    };
+    private static final String[] CALLOUT_TYPES = {"info", "warning", "tip", "quote", "example", "bug"};
+
+    private SyntheticNotes() {
+    }
+
+    /**
+     * Link map with {@code noteCount} notes named {@code Note 0} to {@code Note n-1}.
+     */
+    public static Map<String, String> linkMap(int noteCount) {
+        Map<String, String> links = new HashMap<>();
+        for (int i = 0; i < noteCount; i++) {
+            links.put(noteName(i), "</Chapter " + (i % 10) + "/" + noteName(i) + ".md>");
+        }
+        return links;
+    }
+
+    /**
+     * Link index of the same notes as {@link #linkMap}.
+     */
+    public static VaultLinkIndex linkIndex(int noteCount) {
+        List<String> relativePaths = new ArrayList<>(noteCount);
+        for (int i = 0; i < noteCount; i++) {
+            relativePaths.add("Chapter " + (i % 10) + "/" + noteName(i) + ".md");
+        }
+        return VaultLinkIndex.ofPaths(relativePaths);
+    }
+
+    public static String noteName(int index) {
+        return "Note " + index;
+    }
+
+    /**
+     * One note body.
+     *
+     * @param linkDensity    share of lines that contain a wikilink
+     * @param calloutDensity share of lines that start a callout
+     * @param calloutNesting 1 for plain callouts, 2 to also generate nested ones
+     */
+    public static String note(long seed, int lineCount, int noteCount, double linkDensity, double calloutDensity,
+                              int calloutNesting) {
+        Random random = new Random(seed);
+        StringBuilder note = new StringBuilder(lineCount * 64);
+        note.append("<!--TAGS-->\n---\ntags: [generated]\n---\n<!--/TAGS-->\n\n");
+        note.append("# ").append(sentence(random, 3)).append('\n');
+        int line = 0;
+        while (line < lineCount) {
+            double roll = random.nextDouble();
+            if (roll < calloutDensity) {
+                note.append("> [!").append(CALLOUT_TYPES[random.nextInt(CALLOUT_TYPES.length)]).append("] ")
+                        .append(sentence(random, 2)).append('\n');
+                note.append("> ").append(sentence(random, 8)).append('\n');
+                line += 2;
+                if (calloutNesting > 1 && random.nextBoolean()) {
+                    note.append("> > [!tip] ").append(sentence(random, 2)).append('\n');
+                    note.append("> > ").append(sentence(random, 6)).append('\n');
+                    line += 2;
+                }
+                note.append('\n');
+            } else if (roll < calloutDensity + linkDensity) {
+                note.append(sentence(random, 4)).append(" [[").append(noteName(random.nextInt(noteCount * 2)))
+                        .append("]] ").append(sentence(random, 4)).append('\n');
+            } else if (roll < calloutDensity + linkDensity + 0.1) {
+                note.append('\n');
+            } else {
+                note.append(sentence(random, 12)).append('\n');
+            }
+            line++;
+        }
+        return note.toString();
+    }
+
+    static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
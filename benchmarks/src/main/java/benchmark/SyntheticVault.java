@@ -0,0 +1,91 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Writes a reproducible Obsidian vault of numbered chapter directories for the benchmarks.
+ * Can also be started on its own to create a vault for manual runs:
+ * {@code SyntheticVault <directory> [notes] [depth] [linkDensity] [calloutNesting]}.
+ */
+public final class SyntheticVault {
+
+    /**
+     * @param noteCount      number of notes in the vault
+     * @param depth          directory levels below the vault root
+     * @param linkDensity    share of lines that contain a wikilink
+     * @param calloutNesting 1 for plain callouts, 2 to also generate nested ones
+     */
+    public record Shape(int noteCount, int depth, double linkDensity, int calloutNesting) {
+    }
+
+    private static final int LINES_PER_NOTE = 80;
+    private static final int DIRECTORIES_PER_LEVEL = 5;
+    private static final double CALLOUT_DENSITY = 0.05;
+    private static final double IMAGE_SHARE = 0.1;
+
+    private SyntheticVault() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: SyntheticVault <directory> [notes] [depth] [linkDensity] [calloutNesting]");
+            return;
+        }
+        Shape shape = new Shape(
+                args.length > 1 ? Integer.parseInt(args[1]) : 1000,
+                args.length > 2 ? Integer.parseInt(args[2]) : 3,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0.2,
+                args.length > 4 ? Integer.parseInt(args[4]) : 2);
+        create(Path.of(args[0]), shape);
+    }
+
+    public static Path create(Path root, Shape shape) throws IOException {
+        Random random = new Random(shape.noteCount() * 31L + shape.depth());
+        Files.createDirectories(root);
+        Files.writeString(root.resolve("_quarto.yml"), "project:\n  type: book\n");
+        for (int i = 0; i < shape.noteCount(); i++) {
+            Path directory = root;
+            int position = i;
+            for (int level = 0; level < shape.depth(); level++) {
+                int number = position % DIRECTORIES_PER_LEVEL + 1;
+                position /= DIRECTORIES_PER_LEVEL;
+                directory = directory.resolve(number + (level == 0 ? " Chapter" : ".0 Section"));
+            }
+            Files.createDirectories(directory);
+            String note = SyntheticNotes.note(i, LINES_PER_NOTE, shape.noteCount(), shape.linkDensity(),
+                    CALLOUT_DENSITY, shape.calloutNesting());
+            Files.writeString(directory.resolve(SyntheticNotes.noteName(i) + ".md"), note);
+            if (random.nextDouble() < IMAGE_SHARE) {
+                byte[] image = new byte[4096];
+                random.nextBytes(image);
+                Files.write(directory.resolve(SyntheticNotes.noteName(i) + ".png"), image);
+            }
+        }
+        return root;
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,98 @@
+package model;
+
+import benchmark.SyntheticNotes;
+import benchmark.SyntheticVault;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One large note converted through {@link NoteFileConverter}, which works on the bytes and copies lines without
+ * markup unchanged, and through the former {@code readLine} loop that decodes every line. Divide the note size
+ * by the time per operation for the throughput.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LargeNoteBenchmark {
+
+    private static final int NOTES = 500;
+
+    /**
+     * Size of the note in MB, 2 is read into memory at once, 32 is memory-mapped.
+     */
+    @Param({"2", "32"})
+    public int sizeMb;
+
+    @Param({"0.02"})
+    public double linkDensity;
+
+    private Path directory;
+    private Path source;
+    private Path target;
+    private NoteFileConverter converter;
+    private QuartoNoteTransformer transformer;
+    private final MessageObserver observer = new MessageObserver() {
+        @Override
+        public void notify(String updateText) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void createNote() throws IOException {
+        directory = Files.createTempDirectory("large-note-benchmark");
+        source = directory.resolve("Large.md");
+        target = directory.resolve("Large.out.md");
+        VaultLinkIndex linkIndex = SyntheticNotes.linkIndex(NOTES);
+        converter = new NoteFileConverter(linkIndex);
+        transformer = new QuartoNoteTransformer(linkIndex);
+
+        long bytes = sizeMb * (1L << 20);
+        try (BufferedWriter writer = Files.newBufferedWriter(source, StandardCharsets.UTF_8)) {
+            long seed = 0;
+            long written = 0;
+            while (written < bytes) {
+                String chunk = SyntheticNotes.note(seed++, 2000, NOTES, linkDensity, 0.01, 1);
+                writer.write(chunk);
+                written += chunk.length();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteNote() throws IOException {
+        SyntheticVault.delete(directory);
+    }
+
+    @Benchmark
+    public boolean byteStream() throws IOException {
+        return converter.convert(source, target, null, "2024-01-01", new HashSet<>(), observer, () -> {
+        });
+    }
+
+    @Benchmark
+    public boolean lineReader() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            transformer.begin(writer, "2024-01-01", new HashSet<>(), observer);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!transformer.accept(line)) {
+                    break;
+                }
+            }
+            transformer.finish();
+        }
+        return transformer.isIgnored();
+    }
+}
@@ -0,0 +1,84 @@
+package model;
+
+import benchmark.SyntheticNotes;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one line through {@link QuartoNoteTransformer} as the number of {@link NoteRules} grows. The added rules
+ * never match, like most rules on most lines. The trigger table looks at every character once no matter how
+ * many rules there are, {@code containsChain} is the alternative of asking every rule in turn.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleDispatchBenchmark {
+
+    private static final String PLAIN_LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod.";
+    private static final String LINK_LINE = "See [[Note 12]] and [[Note 99]] but not [[Missing note]] or [[figure.png]].";
+    private static final String RARE_CHARACTERS = "~@#%&|`$";
+
+    /**
+     * Rules added to the standard ones.
+     */
+    @Param({"0", "8", "24", "56"})
+    public int addedRules;
+
+    private QuartoNoteTransformer transformer;
+    private final List<String> triggers = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws IOException {
+        NoteRules rules = NoteRules.STANDARD;
+        for (int i = 0; i < addedRules; i++) {
+            String trigger = RARE_CHARACTERS.charAt(i % RARE_CHARACTERS.length()) + "rule" + i;
+            triggers.add(trigger);
+            rules = rules.with(() -> new NoteRule() {
+                @Override
+                public List<String> triggers() {
+                    return List.of(trigger);
+                }
+
+                @Override
+                public String apply(String line, Context context) {
+                    return line;
+                }
+            });
+        }
+        transformer = new QuartoNoteTransformer(SyntheticNotes.linkIndex(1000), rules);
+        transformer.begin(Writer.nullWriter(), "2024-01-01", new HashSet<>(), new MessageObserver() {
+            @Override
+            public void notify(String updateText) {
+            }
+        });
+        transformer.accept("# Heading");
+    }
+
+    @Benchmark
+    public void plainLine() throws IOException {
+        transformer.accept(PLAIN_LINE);
+    }
+
+    @Benchmark
+    public void linkLine() throws IOException {
+        transformer.accept(LINK_LINE);
+    }
+
+    @Benchmark
+    public boolean containsChain() {
+        boolean matched = false;
+        for (String trigger : triggers) {
+            matched |= PLAIN_LINE.contains(trigger);
+        }
+        return matched;
+    }
+}
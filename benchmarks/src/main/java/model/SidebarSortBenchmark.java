@@ -0,0 +1,85 @@
+package model;
+
+import benchmark.SyntheticVault;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing and sorting one directory with thousands of numbered and unnumbered entries. The in-memory variants
+ * compare the precomputed chapter keys with the former comparator, which split and parsed both names on every
+ * comparison and fell back to exceptions for unnumbered names.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SidebarSortBenchmark {
+
+    @Param({"1000", "5000"})
+    public int entryCount;
+
+    private final WebsiteSidebarTextGenerator generator = new WebsiteSidebarTextGenerator(SidebarConfiguration.DEFAULT);
+    private Path directory;
+    private List<String> names;
+
+    @Setup(Level.Trial)
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sort-benchmark");
+        names = new ArrayList<>();
+        for (int i = 0; i < entryCount; i++) {
+            String name = switch (i % 4) {
+                case 0 -> i + " Chapter.md";
+                case 1 -> (i % 50) + "." + (i % 7) + " Section " + i + ".md";
+                case 2 -> "Appendix " + i + ".md";
+                default -> i + ".md";
+            };
+            Files.createFile(directory.resolve(name));
+            names.add(name);
+        }
+        Collections.shuffle(names, new Random(42));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        SyntheticVault.delete(directory);
+    }
+
+    @Benchmark
+    public List<WebsiteSidebarTextGenerator.DirectoryEntry> getSortedFiles() throws IOException {
+        return generator.getSortedFiles(directory);
+    }
+
+    @Benchmark
+    public List<String> chapterKeySort() {
+        List<String> sorted = new ArrayList<>(names);
+        ChapterKey.sort(sorted, name -> name);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<String> legacyComparatorSort() {
+        List<String> sorted = new ArrayList<>(names);
+        sorted.sort(SidebarSortBenchmark::legacyCompare);
+        return sorted;
+    }
+
+    private static int legacyCompare(String name1, String name2) {
+        try {
+            int firstNum = Integer.parseInt(name1.split("\\s+")[0]);
+            int secondNum = Integer.parseInt(name2.split("\\s+")[0]);
+            return Integer.compare(firstNum, secondNum);
+        } catch (NumberFormatException e) {
+            return name1.compareTo(name2);
+        }
+    }
+}
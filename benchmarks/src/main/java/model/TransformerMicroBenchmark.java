@@ -0,0 +1,72 @@
+package model;
+
+import benchmark.SyntheticNotes;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single lines through the rules and the callout conversion of {@link QuartoNoteTransformer}.
+ * Lives in the {@code model} package to reach the package-private parts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformerMicroBenchmark {
+
+    private static final String PLAIN_LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod.";
+    private static final String LINK_LINE = "See [[Note 12]] and [[Note 99]] but not [[Missing note]] or [[figure.png]].";
+    private static final String QUALIFIED_LINK_LINE =
+            "See [[Note 12#Some heading]] and [[Note 99|the other note]] and [[Chapter 3/Note 13]].";
+    private static final String CALLOUT_LINE = "> [!info] Callout title";
+    private static final String NESTED_CALLOUT_LINE = "> > [!warning] Nested callout title";
+    private static final String CALLOUT_BODY_LINE = "> Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+
+    private QuartoNoteTransformer transformer;
+
+    @Setup
+    public void setUp() throws IOException {
+        transformer = new QuartoNoteTransformer(SyntheticNotes.linkIndex(1000));
+        transformer.begin(Writer.nullWriter(), "2024-01-01", new HashSet<>(), new MessageObserver() {
+            @Override
+            public void notify(String updateText) {
+            }
+        });
+        transformer.accept("# Heading");
+    }
+
+    @Benchmark
+    public String replaceLinksPlainLine() throws IOException {
+        return transformer.applyRules(PLAIN_LINE, -1L);
+    }
+
+    @Benchmark
+    public String replaceLinksLinkLine() throws IOException {
+        return transformer.applyRules(LINK_LINE, -1L);
+    }
+
+    @Benchmark
+    public String replaceLinksQualifiedLinkLine() throws IOException {
+        return transformer.applyRules(QUALIFIED_LINK_LINE, -1L);
+    }
+
+    @Benchmark
+    public void calloutConversion() throws IOException {
+        transformer.accept(CALLOUT_LINE);
+        transformer.accept(CALLOUT_BODY_LINE);
+        transformer.accept(NESTED_CALLOUT_LINE);
+        transformer.accept(CALLOUT_BODY_LINE);
+        transformer.accept("");
+    }
+
+    @Benchmark
+    public void plainLine() throws IOException {
+        transformer.accept(PLAIN_LINE);
+    }
+}
@@ -1,11 +1,25 @@
 package controler;
 
+import model.MessageEvent;
 import model.MessageObserver;
 
+import java.util.List;
+
 public class PrintLineMessageObserver extends MessageObserver {
 
     @Override
     public void notify(String updateText) {
         System.out.println(updateText);
     }
+
+    @Override
+    public void notifyBatch(List<MessageEvent> events) {
+        // One write per batch instead of one synchronized println per message
+        StringBuilder text = new StringBuilder();
+        for (MessageEvent event : events) {
+            text.append(event.text()).append(System.lineSeparator());
+        }
+        System.out.print(text);
+        System.out.flush();
+    }
 }
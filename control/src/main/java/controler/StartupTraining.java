@@ -0,0 +1,84 @@
+package controler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Training run of the class data sharing archive the {@code control} build writes next to the jar. Exports a small
+ * generated vault through {@link SuperMain} the ways the command line is used, so the archive holds the classes
+ * of real exports: a full one, an incremental one with the extended rules, one into a zip archive and a batch with
+ * its sidebar. The vault is deleted afterwards.
+ */
+public final class StartupTraining {
+
+    private StartupTraining() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("chaptergenerator-training");
+        try {
+            Path vault = writeVault(directory.resolve("vault"));
+            String root = vault.toString();
+            SuperMain.main(new String[]{"ui--false", root});
+            Files.writeString(vault.resolve("1 Basics/1.1 Links.md"), "Changed [[Callouts]] and ==marked== text\n");
+            SuperMain.main(new String[]{"ui--false", root, "incremental--true", "rules--extended"});
+            SuperMain.main(new String[]{"ui--false", root, "target--" + directory.resolve("export.zip")});
+            SuperMain.main(new String[]{"batch", root});
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static Path writeVault(Path vault) throws IOException {
+        Files.createDirectories(vault.resolve("1 Basics"));
+        Files.createDirectories(vault.resolve("2 Advanced/2.1 Details"));
+        Files.writeString(vault.resolve("_quarto.yml"), "project:\n  type: book\n");
+        Files.writeString(vault.resolve("1 Basics/1.1 Links.md"), """
+                ---
+                title: Links
+                ---
+                See [[Callouts]], [[Details#Part|the details]] and [[Missing note]].
+                A block to link to ^block1
+                ![[figure.png|300x200]]
+                """);
+        Files.writeString(vault.resolve("1 Basics/1.2 Callouts.md"), """
+                <!--TAGS-->
+                #basics #callouts
+                <!--/TAGS-->
+                > [!info] A callout
+                > with text
+                > > [!warning] A nested one
+                > > with more text
+                Back to [[Links#^block1]].
+                """);
+        Files.writeString(vault.resolve("2 Advanced/2.1 Details/Details.md"), """
+                TARGET DECK
+                Deck
+                ::
+                Details
+                ::
+                # Part
+                $$
+                x^2 + y^2 = z^2
+                $$
+                Some ==highlighted== text and ![[Links]].
+                """);
+        Files.writeString(vault.resolve("2 Advanced/Ignored.md"), "<!--IGNORED_FILE-->\nNot exported\n");
+        Files.write(vault.resolve("1 Basics/figure.png"), new byte[4096]);
+        return vault;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+}
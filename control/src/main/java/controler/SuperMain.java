@@ -1,11 +1,26 @@
 package controler;
 
+import model.AsyncMessageObserver;
+import model.BatchExporter;
 import model.MarkdownFileStructureGenerator;
+import model.MessageEvent;
+import model.NoteRules;
+import model.VaultWatcher;
+import model.WebsiteSidebarTextGenerator;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class SuperMain {
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         if (args.length > 0) {
             if (args[0].equals("testBuild")) {
                 System.out.println("compiled and build successfully");
@@ -15,11 +30,190 @@ public class SuperMain {
                 throw new IllegalArgumentException("wrong input! if please provide the path for processing.");
             }
             if (args[0].equals("ui--false")) {
-                MarkdownFileStructureGenerator generator = new MarkdownFileStructureGenerator(new PrintLineMessageObserver());
-                generator.generateFileStructure(args[1]);
+                String target = optionValue(args, "target--");
+                try (AsyncMessageObserver observer = new AsyncMessageObserver(new PrintLineMessageObserver(),
+                        logLevel(args));
+                     FileSystem archive = target != null && target.endsWith(".zip") ? openArchive(target) : null) {
+                    MarkdownFileStructureGenerator generator = new MarkdownFileStructureGenerator(observer);
+                    if (archive != null) {
+                        generator.setTargetDirectory(archive.getPath("/"));
+                    } else if (target != null) {
+                        generator.setTargetDirectory(Path.of(target));
+                    }
+                    configure(generator, args);
+                    if (hasOption(args, "sidebar--true")) {
+                        // Before the export, which then takes the updated _quarto.yml along
+                        updateSidebar(args[1]);
+                    }
+                    if (hasOption(args, "watch--true")) {
+                        try (VaultWatcher watcher = new VaultWatcher(Path.of(args[1]), generator, observer)) {
+                            watcher.run();
+                        }
+                        return;
+                    }
+                    generator.generateFileStructure(args[1]);
+                }
+            }
+            if (args[0].equals("sidebar")) {
+                if (args.length == 1) {
+                    throw new IllegalArgumentException("wrong input! please provide the path of the vault.");
+                }
+                updateSidebar(args[1]);
+            }
+            if (args[0].equals("batch")) {
+                if (!runBatch(args)) {
+                    System.exit(1);
+                }
             }
         } else {
             System.out.println("ERROR PLEASE PROVIDE PATH AND \"ui--false\"");
         }
     }
+
+    /**
+     * Exports the vaults given as arguments and listed in {@code vaults--<file>} in one JVM and returns whether all
+     * of them succeeded. Every vault is exported into its own {@code exportFiles}, together with its sidebar.
+     */
+    private static boolean runBatch(String[] args) throws IOException, InterruptedException {
+        if (optionValue(args, "target--") != null || hasOption(args, "watch--true")) {
+            throw new IllegalArgumentException("target-- and watch--true are not supported in batch mode");
+        }
+        List<Path> vaults = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (!isOption(args[i])) {
+                vaults.add(Path.of(args[i]));
+            }
+        }
+        String vaultList = optionValue(args, "vaults--");
+        if (vaultList != null) {
+            vaults.addAll(readVaultList(Path.of(vaultList)));
+        }
+        if (vaults.isEmpty()) {
+            throw new IllegalArgumentException("wrong input! please provide the vaults to export.");
+        }
+
+        List<BatchExporter.VaultResult> results;
+        try (AsyncMessageObserver observer = new AsyncMessageObserver(new PrintLineMessageObserver(),
+                logLevel(args))) {
+            BatchExporter exporter = new BatchExporter(observer, generator -> configure(generator, args));
+            String threads = optionValue(args, "threads--");
+            if (threads != null) {
+                exporter.setParallelism(Integer.parseInt(threads));
+            }
+            String concurrentVaults = optionValue(args, "vaultThreads--");
+            if (concurrentVaults != null) {
+                exporter.setConcurrentVaults(Integer.parseInt(concurrentVaults));
+            }
+            results = exporter.exportAll(vaults);
+        }
+        // After the log, one line per vault for scripts
+        StringBuilder table = new StringBuilder();
+        for (BatchExporter.VaultResult result : results) {
+            table.append(result.status()).append('\t')
+                    .append(TimeUnit.NANOSECONDS.toMillis(result.durationNanos())).append(" ms\t")
+                    .append(result.vault()).append(System.lineSeparator());
+        }
+        System.out.print(table);
+        return results.stream().allMatch(result -> result.status() == BatchExporter.Status.EXPORTED);
+    }
+
+    /**
+     * Puts the sidebar of the vault into the {@code sidebar.contents} of its {@code _quarto.yml}, or prints it if
+     * there is no such section to put it in.
+     */
+    private static void updateSidebar(String vault) throws IOException {
+        WebsiteSidebarTextGenerator.SidebarUpdate update = WebsiteSidebarTextGenerator.updateSidebar(vault, null);
+        String result = switch (update.configuration()) {
+            case UPDATED -> "Updated the sidebar in _quarto.yml";
+            case UNCHANGED -> "The sidebar in _quarto.yml is up to date";
+            case NO_CONFIGURATION -> "No _quarto.yml to put the sidebar in:";
+            case NO_SIDEBAR_SECTION -> "No sidebar.contents in _quarto.yml to put the sidebar in:";
+        };
+        StringBuilder text = new StringBuilder(result).append(" (").append(update.listedDirectories())
+                .append(" directories listed, ").append(update.reusedDirectories()).append(" unchanged)")
+                .append(System.lineSeparator());
+        if (update.configuration() == WebsiteSidebarTextGenerator.ConfigurationUpdate.NO_CONFIGURATION
+                || update.configuration() == WebsiteSidebarTextGenerator.ConfigurationUpdate.NO_SIDEBAR_SECTION) {
+            text.append(update.sidebar());
+        }
+        System.out.print(text);
+    }
+
+    /**
+     * Vault roots of a list file, one per line. Empty lines and lines starting with {@code #} are skipped,
+     * relative paths are relative to the list file.
+     */
+    private static List<Path> readVaultList(Path listFile) throws IOException {
+        List<Path> vaults = new ArrayList<>();
+        for (String line : Files.readAllLines(listFile, StandardCharsets.UTF_8)) {
+            String vault = line.strip();
+            if (!vault.isEmpty() && !vault.startsWith("#")) {
+                vaults.add(listFile.toAbsolutePath().resolveSibling(vault));
+            }
+        }
+        return vaults;
+    }
+
+    /**
+     * Applies the export options of the command line, shared by single and batch exports.
+     */
+    private static void configure(MarkdownFileStructureGenerator generator, String[] args) {
+        generator.setIncremental(hasOption(args, "incremental--true"));
+        generator.setLinkAssets(hasOption(args, "linkAssets--true"));
+        generator.setDeduplicateAssets(hasOption(args, "dedupAssets--true"));
+        generator.setSiteIndex(hasOption(args, "siteIndex--true"));
+        if (hasOption(args, "rules--extended")) {
+            generator.setNoteRules(NoteRules.EXTENDED);
+        }
+        String threads = optionValue(args, "threads--");
+        if (threads != null) {
+            generator.setParallelism(Integer.parseInt(threads));
+        }
+    }
+
+    /**
+     * Zip file system for {@code target--export.zip}, the archive is created if needed and written when it is closed.
+     */
+    private static FileSystem openArchive(String target) throws IOException {
+        return FileSystems.newFileSystem(Path.of(target), Map.of("create", "true"));
+    }
+
+    /**
+     * Minimum level of the printed messages, {@code log--warning} for example only prints warnings and errors.
+     */
+    private static MessageEvent.Level logLevel(String[] args) {
+        String level = optionValue(args, "log--");
+        return level == null ? MessageEvent.Level.INFO : MessageEvent.Level.valueOf(level.toUpperCase());
+    }
+
+    private static boolean isOption(String arg) {
+        int separator = arg.indexOf("--");
+        if (separator < 1) {
+            return false;
+        }
+        for (int i = 0; i < separator; i++) {
+            if (!Character.isLetter(arg.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasOption(String[] args, String option) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals(option)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String optionValue(String[] args, String prefix) {
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith(prefix)) {
+                return args[i].substring(prefix.length());
+            }
+        }
+        return null;
+    }
 }
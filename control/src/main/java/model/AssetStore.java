@@ -0,0 +1,248 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed store for the images of an export, kept in {@code .assets} inside the export directory.
+ * <p>
+ * Every distinct image is stored once under its SHA-256 hash, and its exports are hard links to that copy. An
+ * image pasted into many folders is therefore written once, and an image already stored by an earlier run is not
+ * written at all. The hashes are cached by path, size and modification time, so images that did not change are
+ * not even read again. Where the file system has no hard links, the export falls back to a copy of the stored
+ * image.
+ * <p>
+ * {@link #store} may be called from several threads at once. Images that no export refers to any more are deleted
+ * by {@link #save()}.
+ */
+class AssetStore {
+
+    static final String DIRECTORY_NAME = ".assets";
+    private static final String CACHE_FILE_NAME = ".asset-cache";
+    private static final String CACHE_HEADER = "# asset-cache v1";
+
+    private record CachedHash(long size, long lastModified, String hash) {
+    }
+
+    private final Path directory;
+    private final Map<String, CachedHash> hashes = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Path>> storedAssets = new ConcurrentHashMap<>();
+    private final AtomicInteger assetCount = new AtomicInteger();
+    private final AtomicInteger writtenAssets = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    private AssetStore(Path directory) {
+        this.directory = directory;
+    }
+
+    static AssetStore open(Path exportRoot) throws IOException {
+        AssetStore store = new AssetStore(exportRoot.resolve(DIRECTORY_NAME));
+        Files.createDirectories(store.directory);
+        store.loadCache();
+        return store;
+    }
+
+    static boolean isAsset(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".png") || fileName.endsWith(".jpg");
+    }
+
+    /**
+     * Exports {@code source} to {@code target} through the store. Returns true if the stored image had to be
+     * written, false if it was already there.
+     */
+    boolean store(Path source, String relativePath, Path target) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        CachedHash cached = hashes.get(relativePath);
+        String hash = cached != null && cached.size() == size && cached.lastModified() == lastModified
+                ? cached.hash() : ContentHash.of(source);
+        hashes.put(relativePath, new CachedHash(size, lastModified, hash));
+
+        Path object = objectPath(hash, source);
+        boolean written = false;
+        CompletableFuture<Path> claim = new CompletableFuture<>();
+        CompletableFuture<Path> existing = storedAssets.putIfAbsent(hash, claim);
+        if (existing == null) {
+            // This thread is the first in this run to need the image, it stores it unless an earlier run did
+            try {
+                if (!Files.exists(object)) {
+                    writeObject(source, object);
+                    written = true;
+                }
+                claim.complete(object);
+            } catch (IOException | RuntimeException e) {
+                storedAssets.remove(hash, claim);
+                claim.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            object = existing.join();
+        }
+
+        Files.deleteIfExists(target);
+        boolean linked = tryCreateLink(target, object);
+        if (!linked) {
+            copy(object, target);
+        }
+        assetCount.incrementAndGet();
+        totalBytes.addAndGet(size);
+        if (written) {
+            writtenAssets.incrementAndGet();
+            writtenBytes.addAndGet(size);
+        }
+        if (!linked) {
+            writtenBytes.addAndGet(size);
+        }
+        return written;
+    }
+
+    /**
+     * Forgets every image that is not in {@code relativePaths}, for images removed from the vault.
+     */
+    void retainAll(Set<String> relativePaths) {
+        hashes.keySet().retainAll(relativePaths);
+    }
+
+    /**
+     * Saves the hash cache and deletes stored images that no export refers to any more.
+     */
+    void save() throws IOException {
+        Set<String> referencedHashes = new HashSet<>();
+        Path cacheFile = directory.resolve(CACHE_FILE_NAME);
+        Path tempFile = directory.resolve(CACHE_FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(CACHE_HEADER);
+            writer.newLine();
+            for (Map.Entry<String, CachedHash> entry : hashes.entrySet()) {
+                CachedHash cached = entry.getValue();
+                referencedHashes.add(cached.hash());
+                writer.write(ExportManifest.escape(entry.getKey()) + '\t' + cached.size() + '\t'
+                        + cached.lastModified() + '\t' + cached.hash());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> objects = Files.newDirectoryStream(prefix)) {
+                    for (Path object : objects) {
+                        if (!referencedHashes.contains(hashOf(object))) {
+                            Files.deleteIfExists(object);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    int assetCount() {
+        return assetCount.get();
+    }
+
+    int writtenAssets() {
+        return writtenAssets.get();
+    }
+
+    /**
+     * Bytes of images that neither had to be written into the store nor copied to their export.
+     */
+    long savedBytes() {
+        return totalBytes.get() - writtenBytes.get();
+    }
+
+    private void loadCache() throws IOException {
+        Path cacheFile = directory.resolve(CACHE_FILE_NAME);
+        if (!Files.exists(cacheFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            if (!CACHE_HEADER.equals(reader.readLine())) {
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 4) {
+                    hashes.put(ExportManifest.unescape(fields[0]),
+                            new CachedHash(Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            // A damaged cache only costs hashing the images again
+            hashes.clear();
+        }
+    }
+
+    private Path objectPath(String hash, Path source) {
+        String fileName = source.getFileName().toString();
+        return directory.resolve(hash.substring(0, 2)).resolve(hash + fileName.substring(fileName.lastIndexOf('.')));
+    }
+
+    private static String hashOf(Path object) {
+        String fileName = object.getFileName().toString();
+        int dot = fileName.indexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+
+    private static void writeObject(Path source, Path object) throws IOException {
+        Files.createDirectories(object.getParent());
+        Path tempFile = Files.createTempFile(object.getParent(), "store-", ".tmp");
+        try {
+            copy(source, tempFile);
+            Files.setLastModifiedTime(tempFile, Files.getLastModifiedTime(source));
+            if (tempFile.getFileSystem().equals(FileSystems.getDefault())) {
+                // A stored image is never written again, one cut short by a power loss would stay so
+                ExportJournal.force(tempFile);
+            }
+            Files.move(tempFile, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Stored in the meantime by another export of the same directory
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static boolean tryCreateLink(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             WritableByteChannel out = Files.newByteChannel(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+}
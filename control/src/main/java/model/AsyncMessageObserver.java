@@ -0,0 +1,220 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands messages to another observer on a thread of its own, so the export never waits for a console or a UI.
+ * <p>
+ * Events below the minimum level are dropped right away. The others are put into a lock-free queue of bounded
+ * size, and a single delivery thread passes them on in batches of up to {@code batchSize} events through
+ * {@link MessageObserver#notifyBatch}. When the queue is full the reporting thread waits until there is room
+ * again, so no message is lost and a slow observer slows the export down instead of filling the memory.
+ * <p>
+ * {@link #close()} delivers everything still queued and stops the delivery thread. Messages reported after that,
+ * or once the delivery thread died of an error of the target, are delivered on the reporting thread.
+ */
+public final class AsyncMessageObserver extends MessageObserver implements Closeable {
+
+    private static final System.Logger LOGGER = System.getLogger(AsyncMessageObserver.class.getName());
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int DEFAULT_BATCH_SIZE = 512;
+    private static final long FULL_QUEUE_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final MessageObserver target;
+    private final MessageEvent.Level minimumLevel;
+    private final int capacity;
+    private final int batchSize;
+    private final ConcurrentLinkedQueue<MessageEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private final AtomicLong acceptedEvents = new AtomicLong();
+    private final AtomicLong deliveredEvents = new AtomicLong();
+    private final Thread deliveryThread;
+    // Held while a batch is handed to the target, the target never sees two batches at once
+    private final Object deliveryLock = new Object();
+    private volatile boolean waitingForEvents;
+    private volatile boolean closed;
+
+    public AsyncMessageObserver(MessageObserver target) {
+        this(target, MessageEvent.Level.DEBUG);
+    }
+
+    public AsyncMessageObserver(MessageObserver target, MessageEvent.Level minimumLevel) {
+        this(target, minimumLevel, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    public AsyncMessageObserver(MessageObserver target, MessageEvent.Level minimumLevel, int capacity, int batchSize) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("capacity and batch size must be at least 1");
+        }
+        this.target = target;
+        this.minimumLevel = minimumLevel;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.deliveryThread = Thread.ofPlatform().name("message-delivery").daemon().start(this::deliver);
+    }
+
+    @Override
+    public void notify(String updateText) {
+        notify(MessageEvent.parse(updateText));
+    }
+
+    @Override
+    public void notify(MessageEvent event) {
+        if (!isEnabled(event.level())) {
+            return;
+        }
+        reserveSlot();
+        acceptedEvents.incrementAndGet();
+        queue.offer(event);
+        if (closed || !deliveryThread.isAlive()) {
+            // The delivery thread may have seen an empty queue before this event was offered
+            drainQueue();
+        } else if (waitingForEvents) {
+            LockSupport.unpark(deliveryThread);
+        }
+    }
+
+    @Override
+    public void notifyBatch(List<MessageEvent> events) {
+        for (MessageEvent event : events) {
+            notify(event);
+        }
+    }
+
+    @Override
+    public boolean isEnabled(MessageEvent.Level level) {
+        return level.isAtLeast(minimumLevel) && target.isEnabled(level);
+    }
+
+    /**
+     * Waits until every event reported so far has been handed to the target observer.
+     */
+    public void flush() {
+        long accepted = acceptedEvents.get();
+        while (deliveredEvents.get() < accepted && deliveryThread.isAlive()) {
+            LockSupport.unpark(deliveryThread);
+            LockSupport.parkNanos(FULL_QUEUE_WAIT_NANOS);
+        }
+        if (!deliveryThread.isAlive()) {
+            drainQueue();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(deliveryThread);
+        boolean interrupted = false;
+        while (deliveryThread.isAlive()) {
+            try {
+                deliveryThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        // Left over if the delivery thread died before it saw the close
+        drainQueue();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reserveSlot() {
+        while (true) {
+            int queued = queuedEvents.get();
+            if (queued < capacity) {
+                if (queuedEvents.compareAndSet(queued, queued + 1)) {
+                    return;
+                }
+            } else if (!deliveryThread.isAlive()) {
+                // Nobody else empties the queue any more
+                drainQueue();
+            } else {
+                LockSupport.unpark(deliveryThread);
+                LockSupport.parkNanos(FULL_QUEUE_WAIT_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Delivers everything queued on the calling thread.
+     */
+    private void drainQueue() {
+        List<MessageEvent> batch = new ArrayList<>(batchSize);
+        while (deliverBatch(batch)) {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Takes up to a batch of events from the queue into the empty {@code batch} and delivers them. Returns false
+     * if the queue was empty.
+     */
+    private boolean deliverBatch(List<MessageEvent> batch) {
+        synchronized (deliveryLock) {
+            MessageEvent event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                batch.add(event);
+            }
+            if (batch.isEmpty()) {
+                return false;
+            }
+            queuedEvents.addAndGet(-batch.size());
+            try {
+                target.notifyBatch(batch);
+            } catch (RuntimeException e) {
+                // A failing observer must not stop the delivery of later messages
+                reportDeliveryFailure(e);
+            } finally {
+                deliveredEvents.addAndGet(batch.size());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Tells the target that a batch was lost, as an error event of its own. If the target fails on that too, the
+     * failure goes to the platform logger.
+     */
+    private void reportDeliveryFailure(RuntimeException failure) {
+        try {
+            target.notify(MessageEvent.error(Type.MESSAGE, null,
+                    () -> "Message delivery failed: " + failure));
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+            LOGGER.log(System.Logger.Level.ERROR, "Message delivery failed", failure);
+        }
+    }
+
+    private void deliver() {
+        List<MessageEvent> batch = new ArrayList<>(batchSize);
+        while (true) {
+            if (deliverBatch(batch)) {
+                batch.clear();
+                continue;
+            }
+            waitingForEvents = true;
+            // Checked again after announcing the wait, an event offered in between is not missed
+            if (queue.isEmpty()) {
+                if (closed) {
+                    waitingForEvents = false;
+                    return;
+                }
+                LockSupport.park(this);
+            }
+            waitingForEvents = false;
+        }
+    }
+}
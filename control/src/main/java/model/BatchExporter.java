@@ -0,0 +1,146 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Exports several vaults in one JVM, a few of them at a time, and writes the sidebar of each next to its export.
+ * <p>
+ * All exports take the permits for their file tasks from one shared pool, so no matter how many vaults run
+ * together, at most {@link #setParallelism parallelism} files are copied or transformed at once. A vault that
+ * fails is reported and does not stop the others. The messages of a vault are collected while it runs and passed
+ * on as one block when it is done, so the logs of vaults exported at the same time do not interleave.
+ */
+public class BatchExporter {
+
+    /**
+     * File in the export directory of every vault that receives its {@code sidebar.contents}.
+     */
+    public static final String SIDEBAR_FILE_NAME = "sidebar-contents.yml";
+
+    public enum Status {
+        EXPORTED, FAILED
+    }
+
+    /**
+     * Outcome of one vault. The metrics hold the stages that ran, also those before a failure.
+     */
+    public record VaultResult(Path vault, Status status, long durationNanos, ExportMetrics metrics,
+                              Exception failure) {
+    }
+
+    private final MessageObserver observer;
+    private final Consumer<MarkdownFileStructureGenerator> configuration;
+    private final Object reportLock = new Object();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // One vault walking its directories or building its index leaves the permits to the others
+    private int concurrentVaults = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    /**
+     * @param configuration applied to the generator of every vault, like incremental mode or the note rules
+     */
+    public BatchExporter(MessageObserver observer, Consumer<MarkdownFileStructureGenerator> configuration) {
+        this.observer = observer;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Maximum number of files copied and transformed at the same time, over all vaults together.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Maximum number of vaults exported at the same time.
+     */
+    public void setConcurrentVaults(int concurrentVaults) {
+        if (concurrentVaults < 1) {
+            throw new IllegalArgumentException("concurrent vaults must be at least 1 but was " + concurrentVaults);
+        }
+        this.concurrentVaults = concurrentVaults;
+    }
+
+    /**
+     * Exports every vault and returns their results in the order of {@code vaults}.
+     */
+    public List<VaultResult> exportAll(List<Path> vaults) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        Semaphore filePermits = new Semaphore(parallelism);
+        List<Future<VaultResult>> futures = new ArrayList<>(vaults.size());
+        List<VaultResult> results = new ArrayList<>(vaults.size());
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrentVaults,
+                Math.max(1, vaults.size())))) {
+            for (Path vault : vaults) {
+                futures.add(executor.submit(() -> export(vault, filePermits)));
+            }
+            for (Future<VaultResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // export() reports its own failures, anything else is a bug
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        }
+
+        long durationNanos = System.nanoTime() - startNanos;
+        long failed = results.stream().filter(result -> result.status() == Status.FAILED).count();
+        MessageEvent.Level level = failed > 0 ? MessageEvent.Level.ERROR : MessageEvent.Level.INFO;
+        observer.notify(MessageEvent.of(level, Type.EXPORT_FINISHED, null, () -> "Batch finished: "
+                + (results.size() - failed) + " vaults exported, " + failed + " failed in "
+                + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms").withDuration(durationNanos));
+        return results;
+    }
+
+    private VaultResult export(Path vault, Semaphore filePermits) {
+        long startNanos = System.nanoTime();
+        BufferedMessageObserver vaultObserver = new BufferedMessageObserver(observer);
+        MarkdownFileStructureGenerator generator = new MarkdownFileStructureGenerator(vaultObserver);
+        try {
+            configuration.accept(generator);
+            generator.setSharedPermits(filePermits, parallelism);
+            generator.generateFileStructure(vault.toString());
+            String sidebar = WebsiteSidebarTextGenerator.generateSidebarText(vault.toString(), generator.getMetrics());
+            Files.writeString(generator.getExportDirectory().resolve(SIDEBAR_FILE_NAME), sidebar);
+            generator.writeReport();
+        } catch (IOException | RuntimeException e) {
+            long durationNanos = System.nanoTime() - startNanos;
+            vaultObserver.notify(MessageEvent.error(Type.EXPORT_FINISHED, vault,
+                    () -> "Export of <" + vault + "> failed after " + TimeUnit.NANOSECONDS.toMillis(durationNanos)
+                            + " ms: " + e).withDuration(durationNanos));
+            report(vaultObserver);
+            return new VaultResult(vault, Status.FAILED, durationNanos, generator.getMetrics(), e);
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+        ExportProgress progress = generator.getProgress();
+        vaultObserver.notify(MessageEvent.info(Type.EXPORT_FINISHED, vault, () -> "Exported <" + vault + "> in "
+                + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms, " + progress.completedFiles() + " of "
+                + progress.discoveredFiles() + " files written")
+                .withDuration(durationNanos));
+        report(vaultObserver);
+        return new VaultResult(vault, Status.EXPORTED, durationNanos, generator.getMetrics(), null);
+    }
+
+    private void report(BufferedMessageObserver vaultObserver) {
+        // Observers take a batch event by event, one vault at a time keeps its messages together
+        synchronized (reportLock) {
+            vaultObserver.flush();
+        }
+    }
+}
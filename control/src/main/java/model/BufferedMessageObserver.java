@@ -0,0 +1,42 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the messages of one unit of work so they can be handed on as one batch instead of
+ * interleaving with messages of work running in parallel. Only events the target observer wants are kept.
+ */
+public class BufferedMessageObserver extends MessageObserver {
+
+    private final MessageObserver target;
+    private final List<MessageEvent> events = new ArrayList<>();
+
+    public BufferedMessageObserver(MessageObserver target) {
+        this.target = target;
+    }
+
+    @Override
+    public void notify(String updateText) {
+        notify(MessageEvent.parse(updateText));
+    }
+
+    @Override
+    public void notify(MessageEvent event) {
+        if (isEnabled(event.level())) {
+            events.add(event);
+        }
+    }
+
+    @Override
+    public boolean isEnabled(MessageEvent.Level level) {
+        return target.isEnabled(level);
+    }
+
+    public void flush() {
+        if (!events.isEmpty()) {
+            target.notifyBatch(List.copyOf(events));
+            events.clear();
+        }
+    }
+}
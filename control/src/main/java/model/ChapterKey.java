@@ -0,0 +1,162 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Sort key of a numbered chapter or section name such as {@code "3.2.1 Introduction.md"}.
+ * <p>
+ * The name is parsed once into its numbering ({@code 3, 2, 1}) and the remainder ({@code "Introduction.md"}).
+ * Numbered names come before unnumbered ones, numberings are compared level by level with the shorter
+ * numbering first ({@code 3} before {@code 3.1}), then the remainders and finally the complete names, so the
+ * order is total and consistent. Unnumbered names are compared as strings.
+ */
+public final class ChapterKey implements Comparable<ChapterKey> {
+
+    /**
+     * Compares names by their chapter keys. Parses both names on every comparison, for sorting whole lists
+     * use {@link #sort}, which parses every name only once.
+     */
+    public static final Comparator<String> ORDER = (name1, name2) -> of(name1).compareTo(of(name2));
+
+    private static final long[] NO_NUMBERS = new long[0];
+    // More digits do not fit into a long, such names are treated as unnumbered
+    private static final int MAX_DIGITS = 18;
+
+    private final String name;
+    private final long[] numbers;
+    private final int remainderStart;
+
+    private ChapterKey(String name, long[] numbers, int remainderStart) {
+        this.name = name;
+        this.numbers = numbers;
+        this.remainderStart = remainderStart;
+    }
+
+    public static ChapterKey of(String name) {
+        long[] numbers = NO_NUMBERS;
+        int count = 0;
+        int position = 0;
+        int length = name.length();
+        while (position < length) {
+            int digitsEnd = position;
+            long number = 0;
+            while (digitsEnd < length && digitsEnd - position < MAX_DIGITS && isDigit(name.charAt(digitsEnd))) {
+                number = number * 10 + (name.charAt(digitsEnd) - '0');
+                digitsEnd++;
+            }
+            if (digitsEnd == position || digitsEnd < length && isDigit(name.charAt(digitsEnd))) {
+                break;
+            }
+            if (count == numbers.length) {
+                numbers = Arrays.copyOf(numbers, Math.max(4, count * 2));
+            }
+            numbers[count++] = number;
+            position = digitsEnd;
+            if (position < length && name.charAt(position) == '.') {
+                position++;
+                if (position < length && isDigit(name.charAt(position))) {
+                    continue;
+                }
+            }
+            break;
+        }
+        if (count == 0) {
+            return new ChapterKey(name, NO_NUMBERS, 0);
+        }
+        while (position < length && Character.isWhitespace(name.charAt(position))) {
+            position++;
+        }
+        return new ChapterKey(name, Arrays.copyOf(numbers, count), position);
+    }
+
+    /**
+     * Sorts {@code items} in place by the chapter keys of their names. Every name is parsed once.
+     */
+    public static <T> void sort(List<T> items, Function<? super T, String> nameOf) {
+        int size = items.size();
+        ChapterKey[] keys = new ChapterKey[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = of(nameOf.apply(items.get(i)));
+            order[i] = i;
+        }
+        Arrays.sort(order, (index1, index2) -> keys[index1].compareTo(keys[index2]));
+        Object[] sorted = new Object[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = items.get(order[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) sorted[i];
+            items.set(i, item);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public boolean isNumbered() {
+        return numbers.length > 0;
+    }
+
+    @Override
+    public int compareTo(ChapterKey other) {
+        if (isNumbered() != other.isNumbered()) {
+            return isNumbered() ? -1 : 1;
+        }
+        if (isNumbered()) {
+            int levels = Math.min(numbers.length, other.numbers.length);
+            for (int i = 0; i < levels; i++) {
+                int result = Long.compare(numbers[i], other.numbers[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            if (numbers.length != other.numbers.length) {
+                return Integer.compare(numbers.length, other.numbers.length);
+            }
+            int result = compareRemainders(other);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return name.compareTo(other.name);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ChapterKey key && name.equals(key.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private int compareRemainders(ChapterKey other) {
+        int length1 = name.length() - remainderStart;
+        int length2 = other.name.length() - other.remainderStart;
+        int length = Math.min(length1, length2);
+        for (int i = 0; i < length; i++) {
+            char c1 = name.charAt(remainderStart + i);
+            char c2 = other.name.charAt(other.remainderStart + i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        return length1 - length2;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
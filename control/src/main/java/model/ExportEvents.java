@@ -0,0 +1,64 @@
+package model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the export, in the "Chapter Generator" category. Start a recording with
+ * {@code -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}.
+ * <p>
+ * Loading the first event class sets up parts of Flight Recorder, which takes longer than a small export, so
+ * events are only created while {@link #isRecording()}.
+ */
+final class ExportEvents {
+
+    private ExportEvents() {
+    }
+
+    static boolean isRecording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("chaptergenerator.ExportStage")
+    @Label("Export Stage")
+    @Category({"Chapter Generator", "Export"})
+    @Description("One stage of an export or sidebar run, like collecting the files or converting the notes")
+    static class Stage extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Files")
+        int files;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("chaptergenerator.FileExport")
+    @Label("File Export")
+    @Category({"Chapter Generator", "Export"})
+    @Description("Export of one file of the vault")
+    static class FileExport extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("Links")
+        int links;
+
+        @Label("Unresolved Links")
+        int unresolvedLinks;
+    }
+}
@@ -0,0 +1,264 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Record of the files a running export has committed, {@value #FILE_NAME} in the export directory. A file is
+ * added once its output is complete and in place, one line written at once, so a crash or a cancel leaves a
+ * journal of finished files only. The next export {@link #load}s it and redoes just the other files; the export
+ * {@link #finish}es its journal once everything is done.
+ * <p>
+ * This holds after a power loss as well: the export {@link #force}s every output before moving it into place, and
+ * the journal takes its entries in batches of {@value #BATCH_SIZE}, forcing the directories of their outputs and
+ * then the journal lines to disk. A crash loses at most the entries of the last batch, whose files are redone.
+ * Where the file system cannot force a directory, a move lost with it shows up as an output of the wrong size.
+ * <p>
+ * Next to the journal is the link index the journaled notes were converted with, a note whose links resolve
+ * differently now is redone as well. A journal only counts for the same vault and the same settings, see
+ * {@code configuration}.
+ */
+class ExportJournal implements Closeable {
+
+    static final String FILE_NAME = ".export-journal";
+    static final String INDEX_FILE_NAME = ".export-journal-index";
+    private static final String HEADER = "# export-journal v1";
+    // Last field of every entry, a line cut off by a crash does not end with it
+    private static final String END_OF_ENTRY = ".";
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * One committed file: the size and modification time its source had when it was read, and the size of its
+     * output, or -1 for a note that turned out to be ignored and has no output.
+     */
+    record Entry(String relativePath, long size, long lastModified, long outputSize, List<String> links) {
+
+        Entry {
+            links = List.copyOf(links);
+        }
+
+        boolean hasSameStat(long otherSize, long otherLastModified) {
+            return size == otherSize && lastModified == otherLastModified;
+        }
+
+        boolean isIgnored() {
+            return outputSize < 0;
+        }
+    }
+
+    /**
+     * The journal of an export that did not finish.
+     */
+    record Pending(Map<String, Entry> entries, VaultLinkIndex linkIndex) {
+    }
+
+    private final Path journalFile;
+    private final Path indexFile;
+    private final FileChannel channel;
+    // Committed entries and their outputs that are not in the journal yet, guarded by the channel
+    private final List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+    private final List<Path> batchOutputs = new ArrayList<>(BATCH_SIZE);
+
+    private ExportJournal(Path journalFile, Path indexFile, FileChannel channel) {
+        this.journalFile = journalFile;
+        this.indexFile = indexFile;
+        this.channel = channel;
+    }
+
+    /**
+     * Writes the data of {@code file} to disk, before it is moved into place as a committed output.
+     */
+    static void force(Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            fileChannel.force(false);
+        }
+    }
+
+    /**
+     * The journal an unfinished export left in {@code exportRoot}, or null if there is none, it belongs to another
+     * configuration or it cannot be read.
+     */
+    static Pending load(Path exportRoot, String configuration) throws IOException {
+        Path journalFile = exportRoot.resolve(FILE_NAME);
+        if (!Files.exists(journalFile)) {
+            return null;
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())
+                    || !ExportManifest.escape(configuration).equals(reader.readLine())) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry = parse(line);
+                if (entry != null) {
+                    entries.put(entry.relativePath(), entry);
+                }
+            }
+        }
+        VaultLinkIndex linkIndex = VaultLinkIndex.load(exportRoot.resolve(INDEX_FILE_NAME));
+        return linkIndex == null ? null : new Pending(entries, linkIndex);
+    }
+
+    /**
+     * Starts the journal of an export that converts notes with {@code linkIndex}, with the {@code entries} of an
+     * earlier run that are still valid. Replaces any older journal.
+     */
+    static ExportJournal begin(Path exportRoot, String configuration, VaultLinkIndex linkIndex,
+                               Collection<Entry> entries) throws IOException {
+        Path journalFile = exportRoot.resolve(FILE_NAME);
+        Path indexFile = exportRoot.resolve(INDEX_FILE_NAME);
+        // Without a journal a crash in between only costs the resume, the old entries never meet the new index
+        Files.deleteIfExists(journalFile);
+        linkIndex.save(indexFile);
+        Path tempFile = journalFile.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(ExportManifest.escape(configuration));
+            writer.newLine();
+            for (Entry entry : entries) {
+                writer.write(format(entry));
+            }
+        }
+        force(tempFile);
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory(exportRoot);
+        return new ExportJournal(journalFile, indexFile,
+                FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Adds a file whose forced {@code output} is in place, or null for a note that turned out to be ignored. The
+     * entry reaches the journal with the next batch. May be called from several threads at once.
+     */
+    void committed(Entry entry, Path output) throws IOException {
+        synchronized (channel) {
+            batch.add(entry);
+            if (output != null) {
+                batchOutputs.add(output);
+            }
+            if (batch.size() >= BATCH_SIZE) {
+                writeBatch();
+            }
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // The moves of the outputs are on disk before the entries that rely on them
+        Set<Path> directories = new HashSet<>();
+        for (Path output : batchOutputs) {
+            Path directory = output.getParent();
+            while (directory != null && directories.add(directory) && !directory.equals(journalFile.getParent())) {
+                directory = directory.getParent();
+            }
+        }
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        StringBuilder lines = new StringBuilder(128 * batch.size());
+        for (Entry entry : batch) {
+            lines.append(format(entry));
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+        batch.clear();
+        batchOutputs.clear();
+    }
+
+    /**
+     * Writes the entries of a directory to disk, where the file system allows to open a directory for that.
+     */
+    private static void forceDirectory(Path directory) {
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform, a lost move then shows up as an output of the wrong size
+        }
+    }
+
+    /**
+     * Ends the journal of an export that completed, the next export starts from scratch or from its manifest.
+     */
+    void finish() throws IOException {
+        synchronized (channel) {
+            // Nothing to resume any more, the entries need not reach the disk
+            batch.clear();
+            batchOutputs.clear();
+        }
+        close();
+        Files.deleteIfExists(journalFile);
+        Files.deleteIfExists(indexFile);
+    }
+
+    /**
+     * Writes the last batch, closes the journal and leaves it for the next export to resume from.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (channel) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                writeBatch();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static String format(Entry entry) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(ExportManifest.escape(entry.relativePath())).append('\t')
+                .append(entry.size()).append('\t')
+                .append(entry.lastModified()).append('\t')
+                .append(entry.outputSize()).append('\t')
+                .append(entry.links().size());
+        for (String link : entry.links()) {
+            line.append('\t').append(ExportManifest.escape(link));
+        }
+        return line.append('\t').append(END_OF_ENTRY).append('\n').toString();
+    }
+
+    private static Entry parse(String line) {
+        String[] fields = line.split("\t", -1);
+        try {
+            if (fields.length < 6 || !fields[fields.length - 1].equals(END_OF_ENTRY)
+                    || fields.length != 6 + Integer.parseInt(fields[4])) {
+                return null;
+            }
+            List<String> links = new ArrayList<>(fields.length - 6);
+            for (int i = 5; i < fields.length - 1; i++) {
+                links.add(ExportManifest.unescape(fields[i]));
+            }
+            return new Entry(ExportManifest.unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), links);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
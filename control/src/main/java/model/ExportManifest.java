@@ -0,0 +1,160 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted record of the last export: one entry per copied source file, keyed by its path relative
+ * to the vault root. Incremental runs compare the vault against it to find out what has to be redone.
+ * <p>
+ * The file is a tab separated text file, entries keep the order in which the export walked the vault.
+ */
+public class ExportManifest {
+
+    static final String FILE_NAME = ".export-manifest";
+    private static final String HEADER = "# export-manifest v1";
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public record Entry(String relativePath, long size, long lastModified, String contentHash,
+                        String outputHash, List<String> links) {
+
+        public Entry {
+            links = List.copyOf(links);
+        }
+
+        boolean hasSameStat(long otherSize, long otherLastModified) {
+            return size == otherSize && lastModified == otherLastModified;
+        }
+    }
+
+    public static ExportManifest load(Path manifestFile) throws IOException {
+        ExportManifest manifest = new ExportManifest();
+        if (!Files.exists(manifestFile)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                // Unknown format, behave as if there was no previous export
+                return manifest;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 5) {
+                    continue;
+                }
+                List<String> links = new ArrayList<>();
+                for (int i = 5; i < fields.length; i++) {
+                    links.add(unescape(fields[i]));
+                }
+                Entry entry = new Entry(unescape(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        fields[3], fields[4], links);
+                manifest.entries.put(entry.relativePath(), entry);
+            }
+        } catch (NumberFormatException e) {
+            return new ExportManifest();
+        }
+        return manifest;
+    }
+
+    public void save(Path manifestFile) throws IOException {
+        Path tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                StringBuilder line = new StringBuilder();
+                line.append(escape(entry.relativePath())).append('\t')
+                        .append(entry.size()).append('\t')
+                        .append(entry.lastModified()).append('\t')
+                        .append(entry.contentHash()).append('\t')
+                        .append(entry.outputHash());
+                for (String link : entry.links()) {
+                    line.append('\t').append(escape(link));
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    public void put(Entry entry) {
+        entries.put(entry.relativePath(), entry);
+    }
+
+    public Entry remove(String relativePath) {
+        return entries.remove(relativePath);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public Set<String> relativePaths() {
+        return entries.keySet();
+    }
+
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case '\t' -> escaped.append("\\t");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't' -> unescaped.append('\t');
+                    case 'n' -> unescaped.append('\n');
+                    case 'r' -> unescaped.append('\r');
+                    default -> unescaped.append(next);
+                }
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
@@ -0,0 +1,345 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timings and counters of one export run, for finding out where an export spends its time.
+ * <p>
+ * Stages are the consecutive parts of a run, like collecting the files or exporting them, and are measured in
+ * wall time. Steps are the parts of the work on one file, like converting or moving it; they run on many threads
+ * at once, so their times are summed over all threads. Every file also ends up in a latency histogram and, if it
+ * is among the slowest, in the list of slowest files.
+ * <p>
+ * Everything can be recorded from any thread. While Flight Recorder runs, stages and files are also emitted as
+ * JFR events, see {@link ExportEvents}.
+ */
+public final class ExportMetrics {
+
+    public enum Step {
+        COPY("copy"), CONVERT("convert"), MOVE("move");
+
+        private final String label;
+
+        Step(String label) {
+            this.label = label;
+        }
+    }
+
+    public record StageTiming(String name, long wallNanos, int files, long bytes) {
+    }
+
+    public record FileTiming(String file, long nanos, long bytes) {
+    }
+
+    /**
+     * A running stage, see {@link #startStage}.
+     */
+    public final class StageTimer {
+        private final String name;
+        private final long startNanos = System.nanoTime();
+        private final ExportEvents.Stage event = ExportEvents.isRecording() ? new ExportEvents.Stage() : null;
+
+        private StageTimer(String name) {
+            this.name = name;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        /**
+         * Ends the stage and returns its wall time.
+         */
+        public long finish(int files, long bytes) {
+            long wallNanos = System.nanoTime() - startNanos;
+            if (event != null) {
+                commitEvent(files, bytes);
+            }
+            stages.add(new StageTiming(name, wallNanos, files, bytes));
+            return wallNanos;
+        }
+
+        private void commitEvent(int files, long bytes) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = name;
+                event.files = files;
+                event.bytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    private static final int SLOWEST_FILES = 10;
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    private final long startNanos = System.nanoTime();
+    private final List<StageTiming> stages = new CopyOnWriteArrayList<>();
+    private final LongAdder[] stepNanos = newAdders(Step.values().length);
+    private final LongAdder[] stepFiles = newAdders(Step.values().length);
+    private final LongAdder[] stepBytes = newAdders(Step.values().length);
+    private final LongAdder exportedBytes = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder callouts = new LongAdder();
+    private final LongAdder links = new LongAdder();
+    private final LongAdder unresolvedLinks = new LongAdder();
+    private final LongAdder ignoredNotes = new LongAdder();
+    private final LongAdder tagBlocks = new LongAdder();
+    private final LongAdder yamlFrontMatters = new LongAdder();
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final PriorityQueue<FileTiming> slowestFiles = new PriorityQueue<>(Comparator.comparingLong(FileTiming::nanos));
+
+    public StageTimer startStage(String name) {
+        return new StageTimer(name);
+    }
+
+    void stepFinished(Step step, long nanos, long bytes) {
+        stepNanos[step.ordinal()].add(nanos);
+        stepFiles[step.ordinal()].increment();
+        stepBytes[step.ordinal()].add(bytes);
+    }
+
+    void noteConverted(int lineCount, int calloutCount, int linkCount, int unresolvedLinkCount) {
+        lines.add(lineCount);
+        callouts.add(calloutCount);
+        links.add(linkCount);
+        unresolvedLinks.add(unresolvedLinkCount);
+    }
+
+    void noteClassified(NoteHeadCache.NoteHead head) {
+        if (head.ignored()) {
+            ignoredNotes.increment();
+        }
+        if (head.frontMatter() == NoteHeadCache.FrontMatter.TAGS) {
+            tagBlocks.increment();
+        } else if (head.frontMatter() == NoteHeadCache.FrontMatter.YAML) {
+            yamlFrontMatters.increment();
+        }
+    }
+
+    /**
+     * A note the conversion found marked as ignored after the head that {@link #noteClassified} saw.
+     */
+    void noteIgnored() {
+        ignoredNotes.increment();
+    }
+
+    void fileExported(String file, long nanos, long bytes) {
+        exportedBytes.add(bytes);
+        // Bucket i holds the files that took less than 2^i microseconds
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        latencyHistogram.incrementAndGet(bucket);
+        synchronized (slowestFiles) {
+            if (slowestFiles.size() < SLOWEST_FILES) {
+                slowestFiles.add(new FileTiming(file, nanos, bytes));
+            } else if (slowestFiles.peek().nanos() < nanos) {
+                slowestFiles.poll();
+                slowestFiles.add(new FileTiming(file, nanos, bytes));
+            }
+        }
+    }
+
+    public List<StageTiming> stages() {
+        return List.copyOf(stages);
+    }
+
+    public long stepNanos(Step step) {
+        return stepNanos[step.ordinal()].sum();
+    }
+
+    /**
+     * Size of the source files exported so far.
+     */
+    public long exportedBytes() {
+        return exportedBytes.sum();
+    }
+
+    public long linesTransformed() {
+        return lines.sum();
+    }
+
+    public long calloutsConverted() {
+        return callouts.sum();
+    }
+
+    public long linksConverted() {
+        return links.sum();
+    }
+
+    public long unresolvedLinks() {
+        return unresolvedLinks.sum();
+    }
+
+    /**
+     * Notes marked with {@code <!--IGNORED_FILE-->}, which are not exported.
+     */
+    public long ignoredNotes() {
+        return ignoredNotes.sum();
+    }
+
+    /**
+     * The slowest files so far, the slowest first.
+     */
+    public List<FileTiming> slowestFiles() {
+        List<FileTiming> files;
+        synchronized (slowestFiles) {
+            files = new ArrayList<>(slowestFiles);
+        }
+        files.sort(Comparator.comparingLong(FileTiming::nanos).reversed());
+        return files;
+    }
+
+    /**
+     * Short human readable summary, one line per part.
+     */
+    public List<String> summary() {
+        // Appended instead of concatenated, every distinct concatenation costs startup time on first use
+        StringBuilder stageText = new StringBuilder("Stages:");
+        for (StageTiming stage : stages) {
+            stageText.append(stageText.length() > "Stages:".length() ? ", " : " ").append(stage.name()).append(' ')
+                    .append(millis(stage.wallNanos())).append(" ms (").append(stage.files()).append(" files");
+            if (stage.bytes() > 0) {
+                stageText.append(", ").append(megabytes(stage.bytes())).append(" MB");
+            }
+            stageText.append(')');
+        }
+        StringBuilder stepText = new StringBuilder("Steps summed over threads:");
+        for (Step step : Step.values()) {
+            stepText.append(step.ordinal() > 0 ? ", " : " ").append(step.label).append(' ')
+                    .append(millis(stepNanos(step))).append(" ms (").append(stepFiles[step.ordinal()].sum())
+                    .append(" files)");
+        }
+        StringBuilder noteText = new StringBuilder("Notes: ").append(linesTransformed()).append(" lines, ")
+                .append(calloutsConverted()).append(" callouts, ").append(linksConverted())
+                .append(" links converted, ").append(unresolvedLinks()).append(" unresolved links, ")
+                .append(ignoredNotes()).append(" ignored");
+        StringBuilder slowestText = new StringBuilder("Slowest files:");
+        List<FileTiming> files = slowestFiles();
+        for (int i = 0; i < Math.min(3, files.size()); i++) {
+            slowestText.append(i > 0 ? ", " : " ").append(files.get(i).file()).append(' ')
+                    .append(millis(files.get(i).nanos())).append(" ms");
+        }
+        return List.of(stageText.toString(), stepText.toString(), noteText.toString(), slowestText.toString());
+    }
+
+    /**
+     * Writes the metrics as a JSON object, for build pipelines and dashboards.
+     */
+    public void writeJson(Writer writer) throws IOException {
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\n  \"wallMillis\": ").append(millis(System.nanoTime() - startNanos)).append(",\n  \"stages\": [");
+        for (int i = 0; i < stages.size(); i++) {
+            StageTiming stage = stages.get(i);
+            json.append(i > 0 ? ",\n" : "\n").append("    {\"name\": ");
+            appendJsonString(json, stage.name());
+            json.append(", \"wallMillis\": ").append(millis(stage.wallNanos()))
+                    .append(", \"files\": ").append(stage.files())
+                    .append(", \"bytes\": ").append(stage.bytes()).append('}');
+        }
+        json.append("\n  ],\n  \"steps\": [");
+        for (Step step : Step.values()) {
+            int i = step.ordinal();
+            json.append(i > 0 ? ",\n" : "\n").append("    {\"name\": ");
+            appendJsonString(json, step.label);
+            json.append(", \"busyMillis\": ").append(millis(stepNanos[i].sum()))
+                    .append(", \"files\": ").append(stepFiles[i].sum())
+                    .append(", \"bytes\": ").append(stepBytes[i].sum()).append('}');
+        }
+        json.append("\n  ],\n  \"notes\": {\"lines\": ").append(linesTransformed())
+                .append(", \"callouts\": ").append(calloutsConverted())
+                .append(", \"links\": ").append(linksConverted())
+                .append(", \"unresolvedLinks\": ").append(unresolvedLinks())
+                .append(", \"ignored\": ").append(ignoredNotes())
+                .append(", \"tagBlocks\": ").append(tagBlocks.sum())
+                .append(", \"yamlFrontMatter\": ").append(yamlFrontMatters.sum())
+                .append("},\n  \"latencyHistogram\": [");
+        boolean first = true;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            long files = latencyHistogram.get(i);
+            if (files > 0) {
+                json.append(first ? "\n" : ",\n").append("    {\"belowMicros\": ").append(1L << i)
+                        .append(", \"files\": ").append(files).append('}');
+                first = false;
+            }
+        }
+        json.append("\n  ],\n  \"slowestFiles\": [");
+        List<FileTiming> files = slowestFiles();
+        for (int i = 0; i < files.size(); i++) {
+            FileTiming file = files.get(i);
+            json.append(i > 0 ? ",\n" : "\n").append("    {\"file\": ");
+            appendJsonString(json, file.file());
+            json.append(", \"millis\": ").append(millis(file.nanos()))
+                    .append(", \"bytes\": ").append(file.bytes()).append('}');
+        }
+        json.append("\n  ]\n}\n");
+        writer.append(json);
+    }
+
+    public void writeJson(Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writeJson(writer);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String millis(long nanos) {
+        return fixedPoint(TimeUnit.NANOSECONDS.toMicros(nanos), 1000);
+    }
+
+    private static String megabytes(long bytes) {
+        return fixedPoint(bytes * 10 / (1 << 20), 10);
+    }
+
+    /**
+     * {@code value / scale} with as many decimals as {@code scale} has zeros, without going through
+     * {@link String#format}, which loads the locale data on first use.
+     */
+    private static String fixedPoint(long value, int scale) {
+        String fraction = Long.toString(value % scale + scale);
+        return new StringBuilder().append(value / scale).append('.').append(fraction, 1, fraction.length()).toString();
+    }
+
+    static void appendJsonString(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private static LongAdder[] newAdders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+}
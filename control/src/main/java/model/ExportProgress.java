@@ -0,0 +1,78 @@
+package model;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counters of one running export. The export updates them from its worker threads, a UI can read them at any
+ * time from any thread to show the progress.
+ */
+public class ExportProgress {
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger discoveredFiles = new AtomicInteger();
+    private final AtomicInteger scheduledFiles = new AtomicInteger();
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+    private final AtomicInteger transformedFiles = new AtomicInteger();
+
+    void filesDiscovered(int count) {
+        discoveredFiles.set(count);
+    }
+
+    void filesScheduled(int count) {
+        scheduledFiles.set(count);
+    }
+
+    void fileCopied() {
+        copiedFiles.incrementAndGet();
+    }
+
+    void fileTransformed() {
+        transformedFiles.incrementAndGet();
+    }
+
+    /**
+     * Files of the vault that belong into the export.
+     */
+    public int discoveredFiles() {
+        return discoveredFiles.get();
+    }
+
+    /**
+     * Files that this run actually exports, fewer than the discovered ones in an incremental run.
+     */
+    public int scheduledFiles() {
+        return scheduledFiles.get();
+    }
+
+    public int copiedFiles() {
+        return copiedFiles.get();
+    }
+
+    public int transformedFiles() {
+        return transformedFiles.get();
+    }
+
+    public int completedFiles() {
+        return copiedFiles.get() + transformedFiles.get();
+    }
+
+    /**
+     * Completed share of the scheduled files between 0 and 1, or -1 as long as the files are still collected.
+     */
+    public double fraction() {
+        int scheduled = scheduledFiles.get();
+        if (scheduled == 0) {
+            return -1;
+        }
+        return Math.min(1.0, (double) completedFiles() / scheduled);
+    }
+
+    public double filesPerSecond() {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return completedFiles() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
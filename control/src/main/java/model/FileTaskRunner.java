@@ -0,0 +1,103 @@
+package model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs an independent task per file on virtual threads, with at most {@code parallelism} tasks at a time.
+ * The messages of every task are buffered and passed to the observer in the order of the input list,
+ * so the log reads the same as a sequential run.
+ * <p>
+ * Runners created with the same {@link Semaphore} share its permits, so runners working at the same time, like
+ * the exports of several vaults, stay within one limit together.
+ */
+class FileTaskRunner {
+
+    interface FileTask {
+        void run(Path file, MessageObserver fileObserver) throws IOException;
+    }
+
+    private record TaskResult(BufferedMessageObserver messages, IOException failure) {
+    }
+
+    private final int parallelism;
+    private final Semaphore sharedPermits;
+    private final MessageObserver observer;
+
+    FileTaskRunner(int parallelism, MessageObserver observer) {
+        this.parallelism = Math.max(1, parallelism);
+        this.sharedPermits = null;
+        this.observer = observer;
+    }
+
+    FileTaskRunner(Semaphore sharedPermits, MessageObserver observer) {
+        this.parallelism = Integer.MAX_VALUE;
+        this.sharedPermits = sharedPermits;
+        this.observer = observer;
+    }
+
+    void runAll(List<Path> files, FileTask task) throws IOException {
+        if (parallelism == 1 || files.size() < 2) {
+            for (Path file : files) {
+                task.run(file, observer);
+            }
+            return;
+        }
+
+        Semaphore permits = sharedPermits != null ? sharedPermits : new Semaphore(parallelism);
+        List<Future<TaskResult>> results = new ArrayList<>(files.size());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Path file : files) {
+                results.add(executor.submit(() -> {
+                    BufferedMessageObserver fileObserver = new BufferedMessageObserver(observer);
+                    permits.acquire();
+                    try {
+                        task.run(file, fileObserver);
+                        return new TaskResult(fileObserver, null);
+                    } catch (IOException e) {
+                        return new TaskResult(fileObserver, e);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<TaskResult> result : results) {
+                try {
+                    TaskResult taskResult = result.get();
+                    taskResult.messages().flush();
+                    if (failure == null) {
+                        failure = taskResult.failure();
+                    }
+                } catch (ExecutionException e) {
+                    throw unwrap(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    throw new IOException("Interrupted while processing files", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
+}
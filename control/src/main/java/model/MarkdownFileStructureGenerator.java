@@ -1,65 +1,565 @@
 package model;
 
+import model.MessageEvent.Type;
+
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class MarkdownFileStructureGenerator {
 
-    private Map<String, String> fileLinksMap;
+    public static final String REPORT_FILE_NAME = ".export-report.json";
+    /**
+     * Directory inside the vault the export goes to unless {@link #setTargetDirectory} chose another one.
+     */
+    public static final String DEFAULT_TARGET_DIRECTORY_NAME = "exportFiles";
+
+    private VaultLinkIndex linkIndex;
     private Path sourceRootPath;
     private Path targetRootPath;
+    private Path targetDirectory;
+    // The target as seen by the walk of the vault, null unless it is on the same file system
+    private Path excludedTargetPath;
     private final MessageObserver observer;
-    private Map<String,String> calloutTitleMap = new HashMap<>();
+    private final Queue<NoteFileConverter> idleConverters = new ConcurrentLinkedQueue<>();
+    // Every partial the scans of the running export filled, each is taken by one scan at a time
+    private final Queue<SiteIndex.Partial> siteIndexPartials = new ConcurrentLinkedQueue<>();
+    // Notes the conversion found marked after the head the probe reads
+    private final Set<Path> lateIgnoredNotes = ConcurrentHashMap.newKeySet();
+    private boolean incremental = false;
+    private boolean linkAssets = false;
+    private boolean deduplicateAssets = false;
+    private boolean writeSiteIndex = false;
+    private NoteRules noteRules = NoteRules.STANDARD;
+    private AssetStore assetStore;
+    private NoteHeadCache noteHeads;
+    private ExportJournal journal;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private volatile ExportProgress progress = new ExportProgress();
+    private volatile ExportMetrics metrics = new ExportMetrics();
+    private volatile boolean cancelled;
+    private Semaphore sharedPermits;
+    private int sharedPermitCount;
 
     public MarkdownFileStructureGenerator(MessageObserver observer) {
         this.observer = observer;
-        calloutTitleMap.put("info", "note");
-        calloutTitleMap.put("abstract", "note");
-        calloutTitleMap.put("todo", "note");
-        calloutTitleMap.put("success", "tip");
-        calloutTitleMap.put("question", "caution");
-        calloutTitleMap.put("failure", "important");
-        calloutTitleMap.put("danger", "important");
-        calloutTitleMap.put("bug", "important");
-        calloutTitleMap.put("example", "note");
-        calloutTitleMap.put("quote", "tip");
+    }
+
+    /**
+     * In incremental mode the export keeps a manifest of the last run inside the export directory and
+     * only re-copies and re-transforms files whose inputs changed, instead of rebuilding everything.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Maximum number of files copied and transformed at the same time. 1 processes the files sequentially.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Takes the permits for copying and transforming files from {@code permits} instead of {@link #setParallelism},
+     * shared with other generators running at the same time. {@code count} is the number of permits the pool was
+     * created with, for the messages. Null goes back to the own limit.
+     */
+    void setSharedPermits(Semaphore permits, int count) {
+        this.sharedPermits = permits;
+        this.sharedPermitCount = count;
+    }
+
+    /**
+     * Export images and other binary files as hard links to the vault instead of copies, where the
+     * file system supports it. Exported notes are always written as new files.
+     */
+    public void setLinkAssets(boolean linkAssets) {
+        this.linkAssets = linkAssets;
+    }
+
+    /**
+     * Writes the export to {@code targetDirectory} instead of {@code exportFiles} inside the vault. The directory
+     * may be on any file system, like the root of a zip file system from {@link java.nio.file.FileSystems#newFileSystem}
+     * or an in-memory one, so the vault is only read. Its contents are replaced by every full export. Null restores
+     * the default.
+     */
+    public void setTargetDirectory(Path targetDirectory) {
+        this.targetDirectory = targetDirectory;
+    }
+
+    /**
+     * Conversions applied to the body of every note, {@link NoteRules#STANDARD} unless set.
+     */
+    public void setNoteRules(NoteRules noteRules) {
+        this.noteRules = noteRules;
+    }
+
+    /**
+     * Export images through a content-addressed store inside the export directory: every distinct image is
+     * written once and all of its exports are hard links to it. The store is kept between runs, so images that
+     * did not change are neither read nor written again. Has no effect together with {@link #setLinkAssets}.
+     */
+    public void setDeduplicateAssets(boolean deduplicateAssets) {
+        this.deduplicateAssets = deduplicateAssets;
+    }
+
+    /**
+     * Writes the tags, backlinks and search terms of the exported notes as JSON files into {@code site-index} of
+     * the export, for tag pages and search on the Quarto site. They are collected while the notes are scanned for
+     * their links, so this reads no note a second time. No page links to them, so the directory is added to the
+     * {@code project.resources} of the exported {@code _quarto.yml} for Quarto to copy it into the site.
+     */
+    public void setSiteIndex(boolean writeSiteIndex) {
+        this.writeSiteIndex = writeSiteIndex;
+    }
+
+    /**
+     * Directory the running or last export writes to, null before the first export.
+     */
+    public Path getExportDirectory() {
+        return targetRootPath;
+    }
+
+    /**
+     * Progress of the running or last export. Can be read from any thread while the export runs.
+     */
+    public ExportProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Timings and counters of the running or last export. They are summarized at the end of every export and
+     * written to {@value #REPORT_FILE_NAME} in the export directory.
+     */
+    public ExportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops the running export as soon as possible. The export stops between two lines of a note and throws an
+     * {@link InterruptedIOException}, every file is written to a temporary file first, so no half written file and
+     * no temporary file is left behind. The journal of the files exported so far stays, the next export resumes
+     * from it. A cancelled incremental export keeps the manifest of the last complete run. A cancelled generator
+     * stays cancelled and refuses further exports.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     public void generateFileStructure(String rootPath) throws InvalidPathException, IOException {
-        observer.notify("Processing path: <" + rootPath + ">");
+        checkCancelled();
+        progress = new ExportProgress();
+        metrics = new ExportMetrics();
+        observer.notify(MessageEvent.info(Type.MESSAGE, null, () -> "Processing path: <" + rootPath + ">"));
         initializePaths(rootPath);
-        fileLinksMap = new HashMap<>();
+        if (!Files.isDirectory(sourceRootPath)) {
+            // Creating the export directory would otherwise create the missing vault as well
+            throw new NoSuchFileException(rootPath, null, "the vault is not a directory");
+        }
+        idleConverters.clear();
+        siteIndexPartials.clear();
+        lateIgnoredNotes.clear();
+        assetStore = null;
+        // Loaded before a full export deletes the old export directory, the classifications stay valid
+        noteHeads = NoteHeadCache.load(targetRootPath.resolve(NoteHeadCache.FILE_NAME), noteRules);
+
+        Path manifestFile = targetRootPath.resolve(ExportManifest.FILE_NAME);
+        if (incremental && Files.exists(manifestFile)) {
+            generateIncrementally(manifestFile);
+            publishMetrics();
+            return;
+        }
 
-        deleteOldExportFilesDirectory();
+        // An export that did not finish left its journal, the files it committed are kept instead of deleted
+        ExportJournal.Pending pending = loadJournal();
+        if (pending == null) {
+            deleteOldExportFilesDirectory();
+        }
         createExportFilesDirectory();
+        openAssetStore();
+
+        // All links are resolved against the index, so it is complete before the first note is converted
+        List<Path> exportedFiles = collectExportedFiles();
+        linkIndex = buildLinkIndex(exportedFiles, relativePath -> null);
+        Map<Path, Set<String>> linksByFile = new ConcurrentHashMap<>();
+        List<Path> remainingFiles = resumeJournal(pending, exportedFiles, exportedFiles, linksByFile);
+        progress.filesScheduled(remainingFiles.size());
+        observer.notify(MessageEvent.info(Type.MESSAGE, null, () -> "Finished creating file structure"));
+
+        try {
+            ExportMetrics.StageTimer exportStage = metrics.startStage("export");
+            newTaskRunner().runAll(remainingFiles,
+                    (file, fileObserver) -> linksByFile.put(file, exportFile(file, fileObserver)));
+            int exportedCount = remainingFiles.size() - lateIgnoredNotes.size();
+            notifyStageDuration("Exported", exportedCount, exportStage.finish(exportedCount, metrics.exportedBytes()));
+            saveAssetStore(exportedFiles);
+            Map<String, Set<String>> linksByNote = new HashMap<>();
+            for (Path file : exportedFiles) {
+                linksByNote.put(relativePath(file), linksByFile.get(file));
+            }
+            writeSiteIndex(exportedFiles, linksByNote, null);
+
+            if (incremental) {
+                ExportMetrics.StageTimer manifestStage = metrics.startStage("manifest");
+                ExportManifest manifest = new ExportManifest();
+                for (Path file : exportedFiles) {
+                    if (!lateIgnoredNotes.contains(file)) {
+                        manifest.put(createManifestEntry(file, linksByFile.get(file)));
+                    }
+                }
+                manifest.save(manifestFile);
+                linkIndex.save(targetRootPath.resolve(VaultLinkIndex.FILE_NAME));
+                manifestStage.finish(exportedFiles.size(), 0);
+                observer.notify(MessageEvent.info(Type.MESSAGE, manifestFile,
+                        () -> "Wrote export manifest with " + exportedFiles.size() + " entries"));
+            }
+            saveLateIgnoredNotes();
+            finishJournal();
+        } finally {
+            closeJournal();
+        }
+        publishMetrics();
+    }
+
+    /**
+     * Writes the metrics of the last export to {@value #REPORT_FILE_NAME} in the export directory, again after
+     * more stages were recorded into {@link #getMetrics()}, like the sidebar.
+     */
+    public void writeReport() throws IOException {
+        if (targetRootPath != null && Files.isDirectory(targetRootPath)) {
+            metrics.writeJson(targetRootPath.resolve(REPORT_FILE_NAME));
+        }
+    }
+
+    private void publishMetrics() throws IOException {
+        for (String line : metrics.summary()) {
+            observer.notify(MessageEvent.info(Type.STAGE_FINISHED, null, () -> line));
+        }
+        writeReport();
+    }
+
+    private void generateIncrementally(Path manifestFile) throws IOException {
+        ExportManifest previous = ExportManifest.load(manifestFile);
+        Path indexFile = targetRootPath.resolve(VaultLinkIndex.FILE_NAME);
+        VaultLinkIndex previousIndex = VaultLinkIndex.load(indexFile);
+        // Without a saved index of this format it is unknown what the notes were converted with, they all are again
+        boolean convertAllNotes = previousIndex == null;
+        if (convertAllNotes) {
+            previousIndex = VaultLinkIndex.ofPaths(previous.relativePaths());
+        }
+        Map<String, Path> sourceFiles = new LinkedHashMap<>();
+        List<Path> files = collectExportedFiles();
+        for (Path file : files) {
+            sourceFiles.put(relativePath(file), file);
+        }
+        // Notes that did not change since the last run keep what the saved indexes know about them
+        VaultLinkIndex savedIndex = previousIndex;
+        SiteIndex.Partial savedSiteIndex = writeSiteIndex
+                ? SiteIndex.load(targetRootPath.resolve(SiteIndex.CACHE_FILE_NAME)) : null;
+        linkIndex = buildLinkIndex(files, relativePath -> {
+            ExportManifest.Entry entry = previous.get(relativePath);
+            Path file = sourceFiles.get(relativePath);
+            boolean siteIndexed = !writeSiteIndex || savedSiteIndex != null && savedSiteIndex.contains(relativePath);
+            return entry != null && siteIndexed && !convertAllNotes
+                    && entry.hasSameStat(Files.size(file), Files.getLastModifiedTime(file).toMillis())
+                    ? savedIndex.note(relativePath) : null;
+        });
+
+        Map<String, ExportManifest.Entry> entries = new ConcurrentHashMap<>();
+        List<Path> outdatedFiles = new ArrayList<>();
+        openAssetStore();
+        ExportMetrics.StageTimer compareStage = metrics.startStage("compare");
+
+        for (Map.Entry<String, Path> source : sourceFiles.entrySet()) {
+            Path file = source.getValue();
+            ExportManifest.Entry entry = previous.get(source.getKey());
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            Path targetPath = targetPath(file);
+
+            if (entry == null || !Files.exists(targetPath)) {
+                outdatedFiles.add(file);
+                continue;
+            }
+            String contentHash = entry.contentHash();
+            if (!entry.hasSameStat(size, lastModified)) {
+                contentHash = ContentHash.of(file);
+                // The export date is taken from the modification time, so it counts as an input as well
+                if (!contentHash.equals(entry.contentHash())
+                        || isMarkdownFile(file) && !exportDate(lastModified).equals(exportDate(entry.lastModified()))) {
+                    outdatedFiles.add(file);
+                    continue;
+                }
+                Files.setLastModifiedTime(targetPath, attributes.lastModifiedTime());
+            }
+            if (isMarkdownFile(file) && (convertAllNotes
+                    || resolvesDifferently(entry.relativePath(), entry.links(), previousIndex, linkIndex))) {
+                outdatedFiles.add(file);
+                continue;
+            }
+            entries.put(entry.relativePath(), new ExportManifest.Entry(entry.relativePath(), size, lastModified,
+                    contentHash, entry.outputHash(), entry.links()));
+        }
+
+        int removedFiles = removeDeletedExports(previous, sourceFiles.keySet());
+        compareStage.finish(sourceFiles.size(), 0);
+
+        // Outdated files an interrupted update already wrote again are not written a third time
+        ExportJournal.Pending pending = loadJournal();
+        Map<Path, Set<String>> journaledLinks = new HashMap<>();
+        List<Path> remainingFiles = pending != null || !outdatedFiles.isEmpty()
+                ? resumeJournal(pending, files, outdatedFiles, journaledLinks) : outdatedFiles;
+        for (Map.Entry<Path, Set<String>> journaled : journaledLinks.entrySet()) {
+            entries.put(relativePath(journaled.getKey()), createManifestEntry(journaled.getKey(), journaled.getValue()));
+        }
+
+        try {
+            progress.filesScheduled(remainingFiles.size());
+            ExportMetrics.StageTimer updateStage = metrics.startStage("update");
+            newTaskRunner().runAll(remainingFiles, (file, fileObserver) -> {
+                Set<String> links = exportFile(file, fileObserver);
+                if (lateIgnoredNotes.contains(file)) {
+                    entries.remove(relativePath(file));
+                } else {
+                    entries.put(relativePath(file), createManifestEntry(file, links));
+                }
+            });
+            int updatedCount = remainingFiles.size() - lateIgnoredNotes.size();
+            notifyStageDuration("Updated", updatedCount, updateStage.finish(updatedCount, metrics.exportedBytes()));
+            saveAssetStore(files);
+            Map<String, List<String>> linksByNote = new HashMap<>();
+            for (ExportManifest.Entry entry : entries.values()) {
+                linksByNote.put(entry.relativePath(), entry.links());
+            }
+            writeSiteIndex(files, linksByNote, savedSiteIndex);
+
+            ExportMetrics.StageTimer manifestStage = metrics.startStage("manifest");
+            ExportManifest next = new ExportManifest();
+            for (String relativePath : sourceFiles.keySet()) {
+                ExportManifest.Entry entry = entries.get(relativePath);
+                if (entry != null) {
+                    next.put(entry);
+                }
+            }
+            next.save(manifestFile);
+            linkIndex.save(indexFile);
+            manifestStage.finish(sourceFiles.size(), 0);
+            saveLateIgnoredNotes();
+            finishJournal();
+        } finally {
+            closeJournal();
+        }
+        observer.notify(MessageEvent.info(Type.EXPORT_FINISHED, null, () -> "Incremental export finished: "
+                + (outdatedFiles.size() - lateIgnoredNotes.size()) + " updated, "
+                + (sourceFiles.size() - outdatedFiles.size()) + " unchanged, "
+                + removedFiles + " removed"));
+    }
+
+    /**
+     * Whether exports to the target keep an {@link ExportJournal}. A file system like a zip file is only written
+     * when it is closed, an export that dies before leaves nothing to resume from.
+     */
+    private boolean isJournaled() {
+        return targetRootPath.getFileSystem().equals(FileSystems.getDefault());
+    }
+
+    /**
+     * What the outputs of the journaled files depend on besides their sources, a journal of other settings is
+     * not resumed.
+     */
+    private String journalConfiguration() {
+        return sourceRootPath.toAbsolutePath().normalize() + "|" + noteRules.describe() + "|linkAssets=" + linkAssets
+                + "|deduplicateAssets=" + useAssetStore();
+    }
+
+    private ExportJournal.Pending loadJournal() throws IOException {
+        if (!isJournaled() || !Files.isDirectory(targetRootPath)) {
+            return null;
+        }
+        ExportJournal.Pending pending = ExportJournal.load(targetRootPath, journalConfiguration());
+        if (pending != null) {
+            observer.notify(MessageEvent.info(Type.MESSAGE, targetRootPath.resolve(ExportJournal.FILE_NAME),
+                    () -> "Resuming unfinished export with " + pending.entries().size() + " committed files"));
+        }
+        return pending;
+    }
+
+    /**
+     * Starts the journal of this export and returns the files of {@code scheduledFiles} it still has to export.
+     * The others were committed by the {@code pending} journal and did not change since, their links are put into
+     * {@code journaledLinks}. Everything else an interrupted export left in the target that is not the export of
+     * one of {@code exportedFiles}, like temporary files, is deleted.
+     */
+    private List<Path> resumeJournal(ExportJournal.Pending pending, List<Path> exportedFiles,
+                                     List<Path> scheduledFiles, Map<Path, Set<String>> journaledLinks)
+            throws IOException {
+        if (!isJournaled()) {
+            return scheduledFiles;
+        }
+        List<Path> remainingFiles = scheduledFiles;
+        List<ExportJournal.Entry> retainedEntries = new ArrayList<>();
+        if (pending != null) {
+            remainingFiles = new ArrayList<>();
+            for (Path file : scheduledFiles) {
+                ExportJournal.Entry entry = pending.entries().get(relativePath(file));
+                if (isStillCommitted(file, entry, pending.linkIndex())) {
+                    retainedEntries.add(entry);
+                    if (entry.isIgnored() && isMarkdownFile(file)) {
+                        lateIgnored(file);
+                    }
+                    journaledLinks.put(file, new LinkedHashSet<>(entry.links()));
+                } else {
+                    remainingFiles.add(file);
+                }
+            }
+            removeUnexpectedFiles(exportedFiles);
+            int resumedFiles = retainedEntries.size();
+            observer.notify(MessageEvent.info(Type.MESSAGE, null, () -> "Kept " + resumedFiles
+                    + " files of the unfinished export, " + (scheduledFiles.size() - resumedFiles) + " to go"));
+        }
+        journal = ExportJournal.begin(targetRootPath, journalConfiguration(), linkIndex, retainedEntries);
+        return remainingFiles;
+    }
+
+    /**
+     * Whether the output {@code entry} committed for {@code file} is still what exporting it would write.
+     */
+    private boolean isStillCommitted(Path file, ExportJournal.Entry entry, VaultLinkIndex journaledIndex)
+            throws IOException {
+        // The asset store has to see every image to keep it, linking a stored image again is cheap
+        if (entry == null || assetStore != null && AssetStore.isAsset(file)) {
+            return false;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (!entry.hasSameStat(attributes.size(), attributes.lastModifiedTime().toMillis())) {
+            return false;
+        }
+        Path targetPath = targetPath(file);
+        if (entry.isIgnored()) {
+            return !Files.exists(targetPath);
+        }
+        // A move the crash took back leaves the output of an earlier export or none
+        if (!Files.exists(targetPath) || Files.size(targetPath) != entry.outputSize()) {
+            return false;
+        }
+        return !isMarkdownFile(file)
+                || !resolvesDifferently(relativePath(file), entry.links(), journaledIndex, linkIndex);
+    }
+
+    /**
+     * Deletes the files and then empty directories in the target that are neither the export of one of
+     * {@code exportedFiles} nor kept between exports, like the asset store and the files next to the manifest.
+     */
+    private void removeUnexpectedFiles(List<Path> exportedFiles) throws IOException {
+        Set<Path> expectedFiles = new HashSet<>();
+        for (Path file : exportedFiles) {
+            expectedFiles.add(targetPath(file));
+        }
+        Path assetDirectory = targetRootPath.resolve(AssetStore.DIRECTORY_NAME);
+        Path siteIndexDirectory = targetRootPath.resolve(SiteIndex.DIRECTORY_NAME);
+        Files.walkFileTree(targetRootPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(assetDirectory) || dir.equals(siteIndexDirectory)
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
 
-        Files.walkFileTree(sourceRootPath, new SimpleFileVisitor<>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (shouldCopyFile(file)) {
-                    copyFile(file);
+                boolean keptBetweenExports = file.getParent().equals(targetRootPath)
+                        && file.getFileName().toString().startsWith(".");
+                if (!keptBetweenExports && !expectedFiles.contains(file)) {
+                    Files.delete(file);
+                    observer.notify(MessageEvent.info(Type.FILE_REMOVED, file,
+                            () -> "Removed leftover of the unfinished export <" + file + ">"));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (!dir.equals(targetRootPath)) {
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                        if (entries.iterator().hasNext()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                    }
+                    Files.delete(dir);
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
+    }
+
+    private void finishJournal() throws IOException {
+        if (journal != null) {
+            journal.finish();
+            journal = null;
+        }
+    }
 
-        observer.notify("[info] Finished creating file structure");
-        updateMarkdownFiles(targetRootPath);
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
     }
 
     private void initializePaths(String rootPath) {
         sourceRootPath = Paths.get(rootPath);
-        targetRootPath = Paths.get(rootPath, "exportFiles");
+        targetRootPath = targetDirectory != null ? targetDirectory : sourceRootPath.resolve(DEFAULT_TARGET_DIRECTORY_NAME);
+        excludedTargetPath = null;
+        if (targetRootPath.getFileSystem().equals(sourceRootPath.getFileSystem())) {
+            excludedTargetPath = targetRootPath.toAbsolutePath().normalize();
+            if (sourceRootPath.toAbsolutePath().normalize().startsWith(excludedTargetPath)) {
+                // A full export empties the target, which must never take the vault with it
+                throw new IllegalArgumentException("The export target <" + targetRootPath
+                        + "> must not contain the vault <" + sourceRootPath + ">");
+            }
+        }
     }
 
     private void deleteOldExportFilesDirectory() throws IOException {
         if (Files.exists(targetRootPath)) {
+            Path assetDirectory = targetRootPath.resolve(AssetStore.DIRECTORY_NAME);
             Files.walkFileTree(targetRootPath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    // The asset store outlives the export, it is what makes the next full export cheap
+                    return useAssetStore() && dir.equals(assetDirectory)
+                            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
                 @Override
                 public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                     Files.delete(file);
@@ -68,230 +568,582 @@ public class MarkdownFileStructureGenerator {
 
                 @Override
                 public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                    Files.delete(dir);
+                    // The target itself stays, it may be the root of a file system
+                    if (!dir.equals(targetRootPath)) {
+                        Files.delete(dir);
+                    }
                     return FileVisitResult.CONTINUE;
                 }
             });
-            observer.notify("[info] Deleted old /_exportFiles directory");
+            observer.notify(MessageEvent.info(Type.MESSAGE, targetRootPath,
+                    () -> "Deleted old export in <" + targetRootPath.toUri() + ">"));
         }
     }
 
     private void createExportFilesDirectory() {
         try {
             Files.createDirectories(targetRootPath);
-            observer.notify("[info] Created new /_exportFiles directory at " + targetRootPath.toString());
+            observer.notify(MessageEvent.info(Type.MESSAGE, targetRootPath,
+                    () -> "Created export directory at <" + targetRootPath.toUri() + ">"));
         } catch (IOException e) {
-            observer.notify("[warning] /_exportFiles could not be created");
+            observer.notify(MessageEvent.warning(Type.MESSAGE, targetRootPath,
+                    () -> "Export directory <" + targetRootPath.toUri() + "> could not be created"));
         }
     }
 
     private boolean shouldCopyFile(Path file) {
         String fileName = file.getFileName().toString();
-        return !file.toString().contains("exportFiles") &&
-                (file.getParent().equals(sourceRootPath) && (fileName.equals("_quarto.yml") || fileName.equals("references.bib")) ||
+        return (file.getParent().equals(sourceRootPath) && (fileName.equals("_quarto.yml") || fileName.equals("references.bib")) ||
                         fileName.endsWith(".qmd") || fileName.endsWith(".md") || fileName.endsWith(".png") || fileName.endsWith(".jpg"));
     }
 
-    private void copyFile(Path file) throws IOException {
-        Path targetPath = targetRootPath.resolve(sourceRootPath.relativize(file));
+    /**
+     * All files of the vault that belong into the export, in chapter order. Notes marked as ignored are left out,
+     * so they are neither exported nor linked to.
+     */
+    private List<Path> collectExportedFiles() throws IOException {
+        ExportMetrics.StageTimer walkStage = metrics.startStage("walk");
+        List<Path> files = new ArrayList<>();
+        Map<Path, BasicFileAttributes> noteAttributes = new HashMap<>();
+        long[] bytes = new long[1];
+        Files.walkFileTree(sourceRootPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(sourceRootPath) && isExportDirectory(dir)
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
 
-        Files.createDirectories(targetPath.getParent());
-        Files.copy(file, targetPath, StandardCopyOption.REPLACE_EXISTING);
-        Files.setLastModifiedTime(targetPath, Files.getLastModifiedTime(file));
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (shouldCopyFile(file)) {
+                    files.add(file);
+                    bytes[0] += attrs.size();
+                    if (isMarkdownFile(file)) {
+                        noteAttributes.put(file, attrs);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        sortInChapterOrder(files);
+        walkStage.finish(files.size(), bytes[0]);
 
-        String fileName = file.getFileName().toString();
-        String relativePath = sourceRootPath.relativize(file).toString().replace("\\", "/");
-        fileLinksMap.put(fileName.substring(0, fileName.lastIndexOf('.')), "</" + relativePath + ">");
+        Set<Path> ignoredNotes = findIgnoredNotes(files, noteAttributes);
+        if (!ignoredNotes.isEmpty()) {
+            files.removeIf(ignoredNotes::contains);
+        }
+        progress.filesDiscovered(files.size());
+        return files;
+    }
 
-        observer.notify("[info] Copied file from <" + file.toString() + "> to <" + targetPath.toString() + ">");
+    /**
+     * Whether {@code directory} of the vault holds an export, the current target or one at the default location.
+     */
+    private boolean isExportDirectory(Path directory) {
+        Path fileName = directory.getFileName();
+        if (fileName != null && fileName.toString().equals(DEFAULT_TARGET_DIRECTORY_NAME)) {
+            return true;
+        }
+        return excludedTargetPath != null && directory.toAbsolutePath().normalize().equals(excludedTargetPath);
     }
 
-    private void updateMarkdownFiles(Path directoryPath) throws IOException {
-        Files.walkFileTree(directoryPath, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (file.toString().endsWith(".md") || file.toString().endsWith(".qmd")) {
-                    observer.notify("[info] Editing file: " + file.toString());
-                    editMarkdownFile(file);
+    /**
+     * Classifies the notes among {@code files} by their first bytes, or as the last run did if they did not
+     * change, and returns the ones marked with {@code <!--IGNORED_FILE-->}.
+     */
+    private Set<Path> findIgnoredNotes(List<Path> files, Map<Path, BasicFileAttributes> noteAttributes)
+            throws IOException {
+        ExportMetrics.StageTimer probeStage = metrics.startStage("probe");
+        Map<Path, NoteHeadCache.NoteHead> heads = new ConcurrentHashMap<>();
+        List<Path> changedNotes = new ArrayList<>();
+        for (Path file : files) {
+            BasicFileAttributes attributes = noteAttributes.get(file);
+            if (attributes != null) {
+                NoteHeadCache.NoteHead head = noteHeads.cached(relativePath(file), attributes.size(),
+                        attributes.lastModifiedTime().toMillis());
+                if (head != null) {
+                    heads.put(file, head);
+                } else {
+                    changedNotes.add(file);
                 }
-                return FileVisitResult.CONTINUE;
             }
+        }
+        newTaskRunner().runAll(changedNotes, (file, fileObserver) -> {
+            BasicFileAttributes attributes = noteAttributes.get(file);
+            heads.put(file, noteHeads.classify(file, relativePath(file), attributes.size(),
+                    attributes.lastModifiedTime().toMillis()));
         });
+
+        Set<Path> ignoredNotes = new HashSet<>();
+        for (Path file : files) {
+            NoteHeadCache.NoteHead head = heads.get(file);
+            if (head != null) {
+                metrics.noteClassified(head);
+                if (head.ignored()) {
+                    ignoredNotes.add(file);
+                    observer.notify(MessageEvent.info(Type.FILE_IGNORED, file, () -> "Ignored file: " + file));
+                }
+            }
+        }
+        Path cacheFile = targetRootPath.resolve(NoteHeadCache.FILE_NAME);
+        if (Files.isDirectory(targetRootPath) && (noteHeads.isModified() || !Files.exists(cacheFile))) {
+            noteHeads.save(cacheFile);
+        }
+        probeStage.finish(noteHeads.probedNotes(), noteHeads.probedBytes());
+        return ignoredNotes;
     }
 
-    private void editMarkdownFile(Path file) {
-        String inputFilePath = file.toString();
-        String outputFilePath = file.getParent().toString() + "/temp_" + file.getFileName();
+    /**
+     * Scans the exported files in parallel into a link index. {@code savedNote} may return what a previous run
+     * already knows about a file, which is then not read again.
+     */
+    private VaultLinkIndex buildLinkIndex(List<Path> files, SavedNoteLookup savedNote) throws IOException {
+        ExportMetrics.StageTimer indexStage = metrics.startStage("link index");
+        Map<Path, VaultLinkIndex.Note> notes = new ConcurrentHashMap<>();
+        newTaskRunner().runAll(files, (file, fileObserver) -> {
+            String relativePath = relativePath(file);
+            VaultLinkIndex.Note note = savedNote.find(relativePath);
+            notes.put(file, note != null ? note : scan(file, relativePath));
+        });
+        List<VaultLinkIndex.Note> orderedNotes = new ArrayList<>(files.size());
+        for (Path file : files) {
+            orderedNotes.add(notes.get(file));
+        }
+        VaultLinkIndex index = new VaultLinkIndex(orderedNotes);
+        indexStage.finish(files.size(), 0);
+        for (String name : index.ambiguousNames()) {
+            observer.notify(MessageEvent.warning(Type.MESSAGE, null,
+                    () -> "Several files are named <" + name + ">, links to it go to " + index.resolve(name)));
+        }
+        return index;
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFilePath));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
+    private interface SavedNoteLookup {
+        VaultLinkIndex.Note find(String relativePath) throws IOException;
+    }
 
-            boolean isInTags = false;
-            boolean madeChanges = false;
-            boolean hasSeenTags = false;
-            int calloutDepth = 0;
-            String line;
+    private VaultLinkIndex.Note scan(Path file, String relativePath) throws IOException {
+        if (!writeSiteIndex) {
+            return VaultLinkIndex.scan(file, relativePath);
+        }
+        SiteIndex.Partial partial = siteIndexPartials.poll();
+        if (partial == null) {
+            partial = new SiteIndex.Partial();
+        }
+        try {
+            return VaultLinkIndex.scan(file, relativePath, partial);
+        } finally {
+            siteIndexPartials.offer(partial);
+        }
+    }
 
-            writer.write("---");
-            writer.newLine();
-            writer.write("date: " + Files.getLastModifiedTime(file).toString().substring(0,10));
-            writer.newLine();
-            //If file is empty then this is necessary
-            if (!reader.ready()) {
-                writer.write("---");
+    /**
+     * Merges the partials of the scans and, for the notes that were not scanned, the {@code saved} site index of
+     * the last run into the site index and writes it. {@code linksByNote} holds the wikilinks of every note.
+     */
+    private void writeSiteIndex(List<Path> files, Map<String, ? extends Collection<String>> linksByNote,
+                                SiteIndex.Partial saved) throws IOException {
+        if (!writeSiteIndex) {
+            return;
+        }
+        ExportMetrics.StageTimer siteIndexStage = metrics.startStage("site index");
+        List<String> notes = new ArrayList<>();
+        for (Path file : files) {
+            if (isMarkdownFile(file) && !lateIgnoredNotes.contains(file)) {
+                notes.add(relativePath(file));
             }
+        }
+        SiteIndex index = SiteIndex.merge(notes, siteIndexPartials, saved);
+        int links = index.writeJson(targetRootPath, linksByNote, linkIndex);
+        index.save(targetRootPath.resolve(SiteIndex.CACHE_FILE_NAME));
+        addSiteIndexResource();
+        siteIndexStage.finish(index.noteCount(), 0);
+        observer.notify(MessageEvent.info(Type.MESSAGE, targetRootPath.resolve(SiteIndex.DIRECTORY_NAME),
+                () -> "Wrote site index of " + index.noteCount() + " notes: " + index.tagCount() + " tags, "
+                        + index.termCount() + " terms, " + links + " links"));
+    }
 
-            while ((line = reader.readLine()) != null) {
-                if (line.equals("<!--IGNORED_FILE-->")) {
-                    observer.notify("[info] File ignored");
-                    return;
-                }
-                if (line.equals("<!--TAGS-->")) {
-                    isInTags = true;
-                    hasSeenTags = true;
-                    reader.readLine();
-                    observer.notify("[info] Started reading tags");
-                    continue;
-                }
-                if (line.equals("<!--/TAGS-->")) {
-                    isInTags = false;
-                    observer.notify("[info] Done reading tags");
-                    continue;
-                }
-                if (!hasSeenTags) {
-                    while (line.isEmpty() && reader.ready() && (line = reader.readLine()).isEmpty()) {
-                    }
-                    writer.write("---");
-                    writer.newLine();
-                    hasSeenTags = true;
-                }
+    /**
+     * Lists the site index in the {@code project.resources} of the exported Quarto configuration, if there is one.
+     * The export copies the vault's configuration, so this runs after every export and leaves the vault alone.
+     */
+    private void addSiteIndexResource() throws IOException {
+        Path configurationFile = targetRootPath.resolve(WebsiteSidebarTextGenerator.QUARTO_CONFIGURATION_FILE_NAME);
+        if (!Files.isRegularFile(configurationFile)) {
+            return;
+        }
+        String text;
+        try {
+            text = Files.readString(configurationFile, StandardCharsets.UTF_8);
+        } catch (CharacterCodingException e) {
+            // Written back after a lenient read, the file would lose its other bytes
+            observer.notify(MessageEvent.warning(Type.MESSAGE, configurationFile, () -> "Could not add "
+                    + SiteIndex.RESOURCES + " to the project resources, the file is not UTF-8: " + configurationFile));
+            return;
+        }
+        String updatedText = QuartoProjectResources.addResource(text, SiteIndex.RESOURCES);
+        if (updatedText.equals(text)) {
+            return;
+        }
+        // A new file instead of writing through, the export may share it with the vault as a hard link
+        Path tempPath = configurationFile.resolveSibling("temp_" + configurationFile.getFileName());
+        Files.writeString(tempPath, updatedText, StandardCharsets.UTF_8);
+        moveIntoPlace(tempPath, configurationFile);
+        observer.notify(MessageEvent.info(Type.MESSAGE, configurationFile,
+                () -> "Added " + SiteIndex.RESOURCES + " to the project resources in " + configurationFile));
+    }
 
-                if (line.equals("TARGET DECK")) {
-                    madeChanges = applyTargetDeckTemplate(reader, writer);
-                    continue;
-                }
+    private void sortInChapterOrder(List<Path> files) {
+        Map<Path, ChapterKey[]> keys = new HashMap<>();
+        for (Path file : files) {
+            Path relativePath = sourceRootPath.relativize(file);
+            ChapterKey[] segmentKeys = new ChapterKey[relativePath.getNameCount()];
+            for (int i = 0; i < segmentKeys.length; i++) {
+                segmentKeys[i] = ChapterKey.of(relativePath.getName(i).toString());
+            }
+            keys.put(file, segmentKeys);
+        }
+        files.sort((file1, file2) -> Arrays.compare(keys.get(file1), keys.get(file2)));
+    }
 
-                if (isInTags) {
-                    writer.write(line);
-                    writer.newLine();
-                    continue;
-                }
+    private String relativePath(Path file) {
+        return sourceRootPath.relativize(file).toString().replace("\\", "/");
+    }
 
-                String modifiedLine = replaceMarkdownLinks(line);
+    private Path targetPath(Path file) {
+        // Resolved as a string, the target may be on another file system than the vault
+        return targetRootPath.resolve(relativePath(file));
+    }
+
+    private static boolean isMarkdownFile(Path file) {
+        String fileName = file.getFileName().toString();
+        return fileName.endsWith(".md") || fileName.endsWith(".qmd");
+    }
 
-                Pattern calloutPattern = Pattern.compile("\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
-                Pattern nestedCalloutPattern = Pattern.compile("\\s*>\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
+    private static String exportDate(long lastModified) {
+        return FileTime.fromMillis(lastModified).toString().substring(0, 10);
+    }
 
-                // Prüfen, ob die Zeile ein Callout beginnt
-                Matcher matcher = calloutPattern.matcher(modifiedLine);
-                Matcher nestedMatcher = nestedCalloutPattern.matcher(modifiedLine);
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Export cancelled");
+        }
+    }
 
-                if (nestedMatcher.find()) {
-                    // Verschachtelter Callout gefunden
-                    String calloutType = nestedMatcher.group(1);  // z.B. "info" oder "warning"
-                    calloutType = quartoCalloutTitle(calloutType);
-                    String title = matcher.group(2).trim();  // Titel des Callouts
-                    modifiedLine = "::: {.callout-"+calloutType+" title=\""+title+"\"}";
-                    calloutDepth = 2;
-                    writer.write(modifiedLine);
-                    writer.newLine();
-                    continue;
-                }
-                else if (matcher.find()) {
-                    // Einfache Callout-Zeile gefunden
-                    String calloutType = matcher.group(1);  // z.B. "info" oder "warning"
-                    calloutType = quartoCalloutTitle(calloutType);
-                    String title = matcher.group(2).trim();  // Titel des Callouts
-                    modifiedLine = "::: {.callout-"+calloutType+" title=\""+title+"\"}";
-                    calloutDepth = 1;
-                    writer.write(modifiedLine);
-                    writer.newLine();
-                    continue;
-                }
-                    int geCharCount = modifiedLine.length() - modifiedLine.replace(">", "").length();
-                if (geCharCount < calloutDepth) {
-                    for (int i = 0; i < calloutDepth - geCharCount; i++) {
-                        writer.write(":::");
-                        writer.newLine();
-                        writer.newLine();
+    private FileTaskRunner newTaskRunner() {
+        return sharedPermits != null ? new FileTaskRunner(sharedPermits, observer) : new FileTaskRunner(parallelism, observer);
+    }
+
+    private void notifyStageDuration(String stage, int fileCount, long durationNanos) {
+        observer.notify(MessageEvent.info(Type.STAGE_FINISHED, null, () -> stage + " " + fileCount + " files in "
+                + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms using up to " + (sharedPermits != null
+                ? sharedPermitCount + " threads shared with the other exports" : parallelism + " threads"))
+                .withDuration(durationNanos));
+    }
+
+    /**
+     * Writes the export of one source file: notes are streamed through the Quarto conversion straight
+     * into their target, everything else is copied. Returns the wikilinks found in the file.
+     */
+    private Set<String> exportFile(Path file, MessageObserver fileObserver) throws IOException {
+        checkCancelled();
+        long startNanos = System.nanoTime();
+        ExportEvents.FileExport event = ExportEvents.isRecording() ? new ExportEvents.FileExport() : null;
+        if (event != null) {
+            event.begin();
+        }
+        Path targetPath = targetPath(file);
+        Files.createDirectories(targetPath.getParent());
+        // Read before the file is, the journal entry of a file changed meanwhile then no longer matches it
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        Set<String> links;
+        boolean committed;
+        if (!isMarkdownFile(file)) {
+            copyFile(file, targetPath, size, fileObserver);
+            progress.fileCopied();
+            links = Set.of();
+            committed = true;
+        } else {
+            fileObserver.notify(MessageEvent.info(Type.FILE_EDITED, targetPath, () -> "Editing file: " + targetPath));
+            links = new LinkedHashSet<>();
+            committed = editMarkdownFile(file, targetPath, size, links, event, fileObserver);
+            progress.fileTransformed();
+        }
+
+        String relativePath = relativePath(file);
+        if (committed && journal != null) {
+            long outputSize = Files.exists(targetPath) ? Files.size(targetPath) : -1;
+            journal.committed(new ExportJournal.Entry(relativePath, size, attributes.lastModifiedTime().toMillis(),
+                    outputSize, new ArrayList<>(links)), targetPath);
+        }
+        if (lateIgnoredNotes.contains(file)) {
+            return links;
+        }
+        metrics.fileExported(relativePath, System.nanoTime() - startNanos, size);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.file = relativePath;
+                event.bytes = size;
+                event.commit();
+            }
+        }
+        return links;
+    }
+
+    private void copyFile(Path file, Path targetPath, long size, MessageObserver fileObserver) throws IOException {
+        long startNanos = System.nanoTime();
+        if (assetStore != null && AssetStore.isAsset(file)) {
+            boolean written = assetStore.store(file, relativePath(file), targetPath);
+            metrics.stepFinished(ExportMetrics.Step.COPY, System.nanoTime() - startNanos, size);
+            fileObserver.notify(MessageEvent.info(Type.FILE_COPIED, targetPath, () -> (written ? "Stored" : "Linked")
+                    + " file from <" + file + "> to <" + targetPath + ">"));
+            return;
+        }
+        if (!(linkAssets && tryCreateLink(file, targetPath))) {
+            // Moved over the old export, which may be a hard link to the vault or the asset store and must not be
+            // overwritten, and the target is never seen half written
+            Path tempPath = targetPath.resolveSibling("temp_" + targetPath.getFileName());
+            try {
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+                     WritableByteChannel out = Files.newByteChannel(tempPath, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long length = in.size();
+                    long position = 0;
+                    while (position < length) {
+                        position += in.transferTo(position, length - position, out);
                     }
-                    calloutDepth = geCharCount;
                 }
-                if (calloutDepth > 0) {
-                    modifiedLine = modifiedLine.replace(">", "");
+                if (journal != null) {
+                    ExportJournal.force(tempPath);
                 }
+                moveIntoPlace(tempPath, targetPath);
+            } finally {
+                Files.deleteIfExists(tempPath);
+            }
+            Files.setLastModifiedTime(targetPath, Files.getLastModifiedTime(file));
+        }
+        metrics.stepFinished(ExportMetrics.Step.COPY, System.nanoTime() - startNanos, size);
 
-                writer.write(modifiedLine);
-                writer.newLine();
+        fileObserver.notify(MessageEvent.info(Type.FILE_COPIED, targetPath,
+                () -> "Copied file from <" + file + "> to <" + targetPath + ">"));
+    }
 
-                if (!line.isEmpty()) {
-                    madeChanges = true;
-                    writer.newLine();
-                }
+    private boolean useAssetStore() {
+        return deduplicateAssets && !linkAssets;
+    }
+
+    private void openAssetStore() throws IOException {
+        if (useAssetStore()) {
+            assetStore = AssetStore.open(targetRootPath);
+        }
+    }
+
+    /**
+     * Forgets the images that are no longer part of the vault, saves the store and reports what it saved.
+     */
+    private void saveAssetStore(List<Path> exportedFiles) throws IOException {
+        if (assetStore == null) {
+            return;
+        }
+        ExportMetrics.StageTimer assetStage = metrics.startStage("assets");
+        Set<String> assets = new HashSet<>();
+        for (Path file : exportedFiles) {
+            if (AssetStore.isAsset(file)) {
+                assets.add(relativePath(file));
+            }
+        }
+        assetStore.retainAll(assets);
+        assetStore.save();
+        assetStage.finish(assets.size(), 0);
+        AssetStore store = assetStore;
+        if (store.assetCount() == 0) {
+            return;
+        }
+        observer.notify(MessageEvent.info(Type.MESSAGE, targetRootPath.resolve(AssetStore.DIRECTORY_NAME),
+                () -> "Assets: " + store.assetCount() + " exported, " + store.writtenAssets() + " stored, "
+                        + String.format("%.1f", store.savedBytes() / (1024.0 * 1024.0)) + " MB not written"));
+    }
+
+    private static boolean tryCreateLink(Path file, Path targetPath) {
+        try {
+            Files.deleteIfExists(targetPath);
+            Files.createLink(targetPath, file);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException | ProviderMismatchException e) {
+            return false;
+        }
+    }
+
+    private ExportManifest.Entry createManifestEntry(Path file, Set<String> links) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Path targetPath = targetPath(file);
+        String outputHash = Files.exists(targetPath) ? ContentHash.of(targetPath) : "";
+        return new ExportManifest.Entry(relativePath(file), attributes.size(),
+                attributes.lastModifiedTime().toMillis(), ContentHash.of(file), outputHash,
+                links == null ? List.of() : new ArrayList<>(links));
+    }
+
+    /**
+     * Whether any of the wikilinks of an unchanged note points somewhere else now, because a note was added,
+     * removed, moved or renamed, or its aliases, headings or block ids changed. Also whether other notes now link
+     * to other block ids of the note at {@code relativePath}, which decides the anchors it gets.
+     */
+    private static boolean resolvesDifferently(String relativePath, List<String> links, VaultLinkIndex previousIndex,
+                                               VaultLinkIndex currentIndex) {
+        if (!previousIndex.linkedBlockIds(relativePath).equals(currentIndex.linkedBlockIds(relativePath))) {
+            return true;
+        }
+        for (String link : links) {
+            if (!Objects.equals(previousIndex.resolve(link), currentIndex.resolve(link))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int removeDeletedExports(ExportManifest previous, Set<String> currentRelativePaths) throws IOException {
+        int removed = 0;
+        for (String relativePath : previous.relativePaths()) {
+            if (currentRelativePaths.contains(relativePath)) {
+                continue;
+            }
+            Path targetPath = targetRootPath.resolve(relativePath);
+            if (Files.deleteIfExists(targetPath)) {
+                observer.notify(MessageEvent.info(Type.FILE_REMOVED, targetPath,
+                        () -> "Removed export of deleted or ignored file <" + targetPath + ">"));
+                deleteEmptyParentDirectories(targetPath);
             }
+            removed++;
+        }
+        return removed;
+    }
 
-            if (madeChanges) {
-                observer.notify("[info] Made changes to " + file.toString());
+    private void deleteEmptyParentDirectories(Path file) throws IOException {
+        Path directory = file.getParent();
+        while (directory != null && !directory.equals(targetRootPath) && directory.startsWith(targetRootPath)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                if (entries.iterator().hasNext()) {
+                    return;
+                }
             }
-            reader.close();
-            writer.close();
-            replaceOriginalFile(file, outputFilePath);
+            Files.delete(directory);
+            directory = directory.getParent();
+        }
+    }
 
+    /**
+     * Converts one note into {@code targetPath}. Returns whether the export of the note is complete, written or
+     * removed because it is ignored, false if it failed.
+     */
+    private boolean editMarkdownFile(Path file, Path targetPath, long size, Set<String> links,
+                                     ExportEvents.FileExport event, MessageObserver fileObserver)
+            throws InterruptedIOException {
+        Path tempPath = targetPath.resolveSibling("temp_" + targetPath.getFileName());
+
+        try {
+            if (convertToQuarto(file, tempPath, targetPath, size, links, event, fileObserver)) {
+                // Marked further down than the head probe reads, not exported like the notes found up front
+                Files.deleteIfExists(targetPath);
+                lateIgnored(file);
+                return true;
+            }
+            long moveStart = System.nanoTime();
+            if (journal != null) {
+                ExportJournal.force(tempPath);
+            }
+            boolean replaced = replaceOriginalFile(targetPath, tempPath, fileObserver);
+            metrics.stepFinished(ExportMetrics.Step.MOVE, System.nanoTime() - moveStart, 0);
+            return replaced;
+        } catch (InterruptedIOException e) {
+            throw e;
         } catch (IOException e) {
-            observer.notify("[error] Error editing file: " + file.toString());
+            fileObserver.notify(MessageEvent.error(Type.FILE_EDITED, file, () -> "Error editing file: " + file));
             e.printStackTrace();
+            return false;
+        } finally {
+            try {
+                Files.deleteIfExists(tempPath);
+            } catch (IOException e) {
+                fileObserver.notify(MessageEvent.warning(Type.FILE_EDITED, tempPath,
+                        () -> "Could not delete temporary file: " + tempPath));
+            }
         }
     }
 
-    private boolean applyTargetDeckTemplate(BufferedReader reader, BufferedWriter writer) throws IOException {
-        reader.readLine();
-        reader.readLine();
-        String line = reader.readLine();
-        line = "## " + line;
-        writer.write(line);
-        writer.newLine();
-        writer.newLine();
-        reader.readLine();
-        observer.notify("[info] Applied TARGET DECK template changes");
-        return true;
-    }
-
-    private String replaceMarkdownLinks(String line) {
-        Pattern pattern = Pattern.compile("\\[\\[([^\\]]+)\\]\\]");
-        Matcher matcher = pattern.matcher(line);
-        StringBuilder result = new StringBuilder();
-
-        while (matcher.find()) {
-            String linkText = matcher.group(1);
-            if (fileLinksMap.containsKey(linkText)) {
-                String replacement = "[" + linkText + "](" + fileLinksMap.get(linkText) + ")";
-                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
-            } else if (linkText.endsWith(".png") || linkText.endsWith(".jpg")) {
-                String replacement = "[](</" + linkText + ">)";
-                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
-            } else {
-                matcher.appendReplacement(result, Matcher.quoteReplacement(matcher.group(0)));
+    /**
+     * Streams one note from {@code file} through the Obsidian to Quarto conversion into {@code tempPath}. Returns true if the note is marked as
+     * ignored, in which case the written output is incomplete and must be discarded.
+     */
+    private boolean convertToQuarto(Path file, Path tempPath, Path targetPath, long size, Set<String> links,
+                                    ExportEvents.FileExport event, MessageObserver fileObserver) throws IOException {
+        NoteFileConverter converter = idleConverters.poll();
+        if (converter == null) {
+            converter = new NoteFileConverter(linkIndex, noteRules);
+        }
+        try {
+            String date = Files.getLastModifiedTime(file).toString().substring(0, 10);
+            long startNanos = System.nanoTime();
+            boolean ignored = converter.convert(file, tempPath, relativePath(file), date, links, fileObserver,
+                    this::checkCancelled);
+            metrics.stepFinished(ExportMetrics.Step.CONVERT, System.nanoTime() - startNanos, size);
+            QuartoNoteTransformer transformer = converter.transformer();
+            metrics.noteConverted(transformer.lineCount(), transformer.calloutCount(), transformer.linkCount(),
+                    transformer.unresolvedLinkCount());
+            if (event != null) {
+                event.lines = transformer.lineCount();
+                event.links = transformer.linkCount();
+                event.unresolvedLinks = transformer.unresolvedLinkCount();
+            }
+            if (ignored) {
+                return true;
             }
+            if (converter.transformer().madeChanges()) {
+                fileObserver.notify(MessageEvent.info(Type.NOTE_CONVERTED, targetPath, () -> "Made changes to " + targetPath));
+            }
+            return false;
+        } finally {
+            idleConverters.offer(converter);
+        }
+    }
+
+    private void saveLateIgnoredNotes() throws IOException {
+        if (!lateIgnoredNotes.isEmpty()) {
+            noteHeads.save(targetRootPath.resolve(NoteHeadCache.FILE_NAME));
         }
-        matcher.appendTail(result);
-        return result.toString();
     }
 
-    private void replaceOriginalFile(Path originalFile, String tempFilePath) throws IOException {
-        Path tempPath = Path.of(tempFilePath);
+    /**
+     * Takes a note the conversion found marked out of the export like {@link #findIgnoredNotes} does with the
+     * notes marked in their head: no manifest entry, no site index entry, counted as ignored and not as exported.
+     * The head cache remembers it, so the next run also leaves it out of the link index.
+     */
+    private void lateIgnored(Path file) {
+        if (lateIgnoredNotes.add(file)) {
+            noteHeads.ignoredLater(relativePath(file));
+            metrics.noteIgnored();
+            observer.notify(MessageEvent.info(Type.FILE_IGNORED, file, () -> "Ignored file: " + file));
+        }
+    }
 
+    private boolean replaceOriginalFile(Path originalFile, Path tempPath, MessageObserver fileObserver)
+            throws IOException {
         // Check if the original file is writable
-        if (Files.isWritable(originalFile)) {
-            Files.move(tempPath, originalFile, StandardCopyOption.REPLACE_EXISTING);
-        } else {
-            observer.notify("[warning] The original file is not (over)writable: " + originalFile.toString());
+        if (!Files.exists(originalFile) || Files.isWritable(originalFile)) {
+            moveIntoPlace(tempPath, originalFile);
+            return true;
         }
+        fileObserver.notify(MessageEvent.warning(Type.FILE_EDITED, originalFile,
+                () -> "The original file is not (over)writable: " + originalFile));
+        return false;
     }
 
-    private String quartoCalloutTitle(String input) {
-        if (this.calloutTitleMap.containsKey(input.toLowerCase())) {
-            return calloutTitleMap.get(input);
+    private static void moveIntoPlace(Path tempPath, Path targetPath) throws IOException {
+        try {
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempPath, targetPath, StandardCopyOption.REPLACE_EXISTING);
         }
-        return input;
     }
 }
@@ -0,0 +1,134 @@
+package model;
+
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * One message of an export: its level, what happened, the file it is about and how long it took.
+ * <p>
+ * The text is only formatted when an observer asks for it, so events that are filtered out or only counted
+ * never build their strings. Formatting is done at most once per event.
+ */
+public final class MessageEvent {
+
+    public enum Level {
+        DEBUG("[debug]"), INFO("[info]"), WARNING("[warning]"), ERROR("[error]");
+
+        private final String tag;
+
+        Level(String tag) {
+            this.tag = tag;
+        }
+
+        public String tag() {
+            return tag;
+        }
+
+        public boolean isAtLeast(Level level) {
+            return compareTo(level) >= 0;
+        }
+    }
+
+    public enum Type {
+        MESSAGE, FILE_EDITED, FILE_COPIED, FILE_IGNORED, FILE_REMOVED, NOTE_CONVERTED, STAGE_FINISHED,
+        EXPORT_FINISHED, SIDEBAR_CHANGED
+    }
+
+    private final Level level;
+    private final Type type;
+    private final Path file;
+    private final long durationNanos;
+    private final boolean tagged;
+    private final Supplier<String> formatter;
+    private String message;
+
+    private MessageEvent(Level level, Type type, Path file, long durationNanos, boolean tagged,
+                         Supplier<String> formatter, String message) {
+        this.level = level;
+        this.type = type;
+        this.file = file;
+        this.durationNanos = durationNanos;
+        this.tagged = tagged;
+        this.formatter = formatter;
+        this.message = message;
+    }
+
+    public static MessageEvent of(Level level, Type type, Path file, Supplier<String> message) {
+        return new MessageEvent(level, type, file, -1, true, message, null);
+    }
+
+    public static MessageEvent info(Type type, Path file, Supplier<String> message) {
+        return of(Level.INFO, type, file, message);
+    }
+
+    public static MessageEvent warning(Type type, Path file, Supplier<String> message) {
+        return of(Level.WARNING, type, file, message);
+    }
+
+    public static MessageEvent error(Type type, Path file, Supplier<String> message) {
+        return of(Level.ERROR, type, file, message);
+    }
+
+    /**
+     * Event of a plain text message. A leading level tag such as {@code "[warning]"} becomes the level of the
+     * event, text without a tag is an untagged info message and keeps its text as it is.
+     */
+    public static MessageEvent parse(String text) {
+        for (Level level : Level.values()) {
+            String tag = level.tag();
+            if (text.startsWith(tag) && text.length() > tag.length() && text.charAt(tag.length()) == ' ') {
+                return new MessageEvent(level, Type.MESSAGE, null, -1, true, null, text.substring(tag.length() + 1));
+            }
+        }
+        return new MessageEvent(Level.INFO, Type.MESSAGE, null, -1, false, null, text);
+    }
+
+    /**
+     * The same event with the duration of the work it reports.
+     */
+    public MessageEvent withDuration(long durationNanos) {
+        return new MessageEvent(level, type, file, durationNanos, tagged, formatter, message);
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * The file the event is about, or null.
+     */
+    public Path file() {
+        return file;
+    }
+
+    /**
+     * Duration in nanoseconds, or -1 if the event has none.
+     */
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    public String message() {
+        if (message == null) {
+            // Formatting twice in a race gives the same string, so no synchronization is needed
+            message = formatter.get();
+        }
+        return message;
+    }
+
+    /**
+     * The message as it is shown in a log, with its level tag in front.
+     */
+    public String text() {
+        return tagged ? level.tag() + " " + message() : message();
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+}
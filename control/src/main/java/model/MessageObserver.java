@@ -1,5 +1,34 @@
 package model;
 
+import java.util.List;
+
+/**
+ * Receives the messages of an export. Subclasses only have to handle plain text, structured events are
+ * formatted and passed to {@link #notify(String)} unless a subclass handles them itself.
+ */
 public abstract class MessageObserver {
     public abstract void notify(String updateText);
+
+    public void notify(MessageEvent event) {
+        if (isEnabled(event.level())) {
+            notify(event.text());
+        }
+    }
+
+    /**
+     * Receives several events at once, in the order they were reported. Observers whose output is expensive per
+     * call, like a text area or a console, should override this and write the whole batch in one go.
+     */
+    public void notifyBatch(List<MessageEvent> events) {
+        for (MessageEvent event : events) {
+            notify(event);
+        }
+    }
+
+    /**
+     * Whether events of this level are wanted at all. Producers may skip building events that are not.
+     */
+    public boolean isEnabled(MessageEvent.Level level) {
+        return true;
+    }
 }
@@ -0,0 +1,236 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Converts one note file into its export through a {@link QuartoNoteTransformer}, working on the UTF-8 bytes.
+ * <p>
+ * Small notes are read into memory at once, larger ones are memory-mapped window by window. Line boundaries are
+ * found on the bytes, with the same terminators as {@link java.io.BufferedReader#readLine()}. Lines without any
+ * markup are copied to the output as bytes, only the other lines are decoded into strings and passed to the
+ * transformer. The triggers of the {@link NoteRules} are all ASCII, which never occurs inside a multi-byte UTF-8
+ * sequence, so the bytes can be checked without decoding them.
+ * <p>
+ * Lines that are no valid UTF-8 are always decoded, which turns every bad byte into U+FFFD as the export always did,
+ * and the note is reported once. Copying only some of them as bytes would leave a note half changed.
+ * <p>
+ * An instance keeps its transformer and buffers between notes, it must only be used by one thread at a time.
+ */
+class NoteFileConverter {
+
+    interface CancellationCheck {
+        void check() throws InterruptedIOException;
+    }
+
+    static final long MAP_THRESHOLD = 1 << 20;
+    private static final int WINDOW_SIZE = 64 << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 64 << 10;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final QuartoNoteTransformer transformer;
+    private final NoteRules rules;
+    private final Utf8ChannelWriter writer = new Utf8ChannelWriter(OUTPUT_BUFFER_SIZE);
+    private final ByteBuffer lineSeparator = ByteBuffer.wrap(LINE_SEPARATOR);
+    private byte[] lineBytes = new byte[256];
+    private boolean malformed;
+
+    NoteFileConverter(VaultLinkIndex linkIndex) {
+        this(linkIndex, NoteRules.STANDARD);
+    }
+
+    NoteFileConverter(VaultLinkIndex linkIndex, NoteRules rules) {
+        transformer = new QuartoNoteTransformer(linkIndex, rules);
+        this.rules = rules;
+    }
+
+    QuartoNoteTransformer transformer() {
+        return transformer;
+    }
+
+    /**
+     * Writes the Quarto version of {@code source} to {@code target}. Returns true if the note is marked as
+     * ignored, in which case the written output is incomplete and must be discarded.
+     */
+    boolean convert(Path source, Path target, String relativePath, String date, Set<String> links,
+                    MessageObserver observer, CancellationCheck cancellation) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             WritableByteChannel out = Files.newByteChannel(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writer.reset(out);
+            malformed = false;
+            transformer.begin(writer, relativePath, date, links, observer);
+            long size = in.size();
+            boolean complete = size < MAP_THRESHOLD
+                    ? convertLines(readFully(in, (int) size), true, cancellation) >= 0
+                    : convertMapped(in, size, cancellation);
+            if (complete) {
+                transformer.finish();
+            }
+            writer.flush();
+        }
+        if (malformed) {
+            observer.notify(MessageEvent.warning(Type.NOTE_CONVERTED, source,
+                    () -> "The note is not valid UTF-8, its bad bytes were replaced with U+FFFD: " + source));
+        }
+        return transformer.isIgnored();
+    }
+
+    private boolean convertMapped(FileChannel in, long size, CancellationCheck cancellation) throws IOException {
+        long position = 0;
+        int windowSize = WINDOW_SIZE;
+        while (position < size) {
+            long length = Math.min(windowSize, size - position);
+            boolean lastWindow = position + length == size;
+            ByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            int consumed = convertLines(window, lastWindow, cancellation);
+            if (consumed < 0) {
+                return false;
+            }
+            if (consumed == 0 && !lastWindow) {
+                // A single line longer than the window, map more at once
+                windowSize = (int) Math.min(Integer.MAX_VALUE, 2L * windowSize);
+                continue;
+            }
+            position += consumed;
+        }
+        return true;
+    }
+
+    /**
+     * Converts the complete lines of {@code bytes}. Unless {@code endOfInput} is set, a last line without
+     * terminator is left for the next call. Returns the number of bytes consumed, or -1 once the transformer
+     * does not want any further lines.
+     */
+    private int convertLines(ByteBuffer bytes, boolean endOfInput, CancellationCheck cancellation) throws IOException {
+        int limit = bytes.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            boolean hasMarkup = false;
+            boolean ascii = true;
+            byte b = 0;
+            while (end < limit) {
+                b = bytes.get(end);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                ascii &= b >= 0;
+                if (!hasMarkup && rules.startsTrigger(bytes, end, limit)) {
+                    hasMarkup = true;
+                }
+                end++;
+            }
+            int next;
+            if (end == limit) {
+                if (!endOfInput) {
+                    return start;
+                }
+                next = limit;
+            } else if (b == '\r') {
+                if (end + 1 == limit && !endOfInput) {
+                    // The \n of a \r\n might be in the next window
+                    return start;
+                }
+                next = end + 1 < limit && bytes.get(end + 1) == '\n' ? end + 2 : end + 1;
+            } else {
+                next = end + 1;
+            }
+
+            boolean wellFormed = ascii || isWellFormed(bytes, start, end);
+            malformed |= !wellFormed;
+            if (!hasMarkup && wellFormed && transformer.writesPlainLinesUnchanged()
+                    && !isMarkerLine(bytes, start, end)) {
+                writer.writeRaw(bytes, start, end);
+                writer.writeRaw(lineSeparator, 0, LINE_SEPARATOR.length);
+                if (end > start) {
+                    writer.writeRaw(lineSeparator, 0, LINE_SEPARATOR.length);
+                }
+                transformer.plainLineWritten(end == start);
+            } else {
+                cancellation.check();
+                if (!transformer.accept(decode(bytes, start, end))) {
+                    return -1;
+                }
+            }
+            start = next;
+        }
+        cancellation.check();
+        return start;
+    }
+
+    private static boolean isMarkerLine(ByteBuffer bytes, int start, int end) {
+        return end - start >= 4 && bytes.get(start) == '<' && bytes.get(start + 1) == '!'
+                && bytes.get(start + 2) == '-' && bytes.get(start + 3) == '-';
+    }
+
+    /**
+     * Whether the bytes are valid UTF-8 as the decoder sees it: no overlong forms, surrogates or code points above
+     * U+10FFFF.
+     */
+    private static boolean isWellFormed(ByteBuffer bytes, int start, int end) {
+        int i = start;
+        while (i < end) {
+            int first = bytes.get(i) & 0xFF;
+            if (first < 0x80) {
+                i++;
+                continue;
+            }
+            int length;
+            if (first >= 0xC2 && first <= 0xDF) {
+                length = 2;
+            } else if (first >= 0xE0 && first <= 0xEF) {
+                length = 3;
+            } else if (first >= 0xF0 && first <= 0xF4) {
+                length = 4;
+            } else {
+                return false;
+            }
+            if (end - i < length) {
+                return false;
+            }
+            int second = bytes.get(i + 1) & 0xFF;
+            if (first == 0xE0 && second < 0xA0 || first == 0xED && second > 0x9F
+                    || first == 0xF0 && second < 0x90 || first == 0xF4 && second > 0x8F) {
+                return false;
+            }
+            for (int k = 1; k < length; k++) {
+                if ((bytes.get(i + k) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += length;
+        }
+        return true;
+    }
+
+    private String decode(ByteBuffer bytes, int start, int end) {
+        int length = end - start;
+        if (bytes.hasArray()) {
+            return new String(bytes.array(), bytes.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        }
+        if (lineBytes.length < length) {
+            lineBytes = new byte[Math.max(length, 2 * lineBytes.length)];
+        }
+        bytes.get(start, lineBytes, 0, length);
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readFully(FileChannel in, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+            // Read until the buffer is full or the file turned out to be shorter
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,285 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies notes by their first {@value #PROBE_SIZE} bytes, before anything else reads them: whether they are
+ * marked with {@code <!--IGNORED_FILE-->} and what kind of front matter they start with.
+ * <p>
+ * A head with a marker line goes through a {@link QuartoNoteTransformer} with the rules of the export, so a marker
+ * counts exactly where the conversion would stop at it, and not in a line a rule consumes, like the one after
+ * {@code <!--TAGS-->} or a {@code TARGET DECK} block. A marker further down is only found by the conversion, which
+ * reports it with {@link #ignoredLater}.
+ * <p>
+ * The classifications are cached by path, size and modification time in {@value #FILE_NAME} inside the export
+ * directory, so a later run only probes the notes that changed. {@link #classify} may be called from several
+ * threads at once.
+ */
+class NoteHeadCache {
+
+    static final String FILE_NAME = ".export-note-heads";
+    static final int PROBE_SIZE = 4096;
+    private static final String HEADER = "# export-note-heads v2";
+    private static final byte[] IGNORED_MARKER = "<!--IGNORED_FILE-->".getBytes(StandardCharsets.US_ASCII);
+    private static final VaultLinkIndex NO_LINKS = new VaultLinkIndex(List.of());
+    private static final MessageObserver SILENT = new MessageObserver() {
+        @Override
+        public void notify(String updateText) {
+        }
+
+        @Override
+        public boolean isEnabled(MessageEvent.Level level) {
+            return false;
+        }
+    };
+    private static final byte[] TAGS_MARKER = "<!--TAGS-->".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] YAML_MARKER = "---".getBytes(StandardCharsets.US_ASCII);
+
+    enum FrontMatter {
+        NONE, YAML, TAGS
+    }
+
+    record NoteHead(boolean ignored, FrontMatter frontMatter) {
+    }
+
+    private record Entry(long size, long lastModified, NoteHead head) {
+    }
+
+    private final NoteRules rules;
+    private final Map<String, Entry> previousEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<QuartoNoteTransformer> idleTransformers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger probedNotes = new AtomicInteger();
+    private final AtomicInteger lateIgnoredNotes = new AtomicInteger();
+    private final AtomicLong probedBytes = new AtomicLong();
+
+    private NoteHeadCache(NoteRules rules, Map<String, Entry> previousEntries) {
+        this.rules = rules;
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * The cache saved in {@code cacheFile} for notes converted with {@code rules}, or an empty one if there is
+     * none, it was made with other rules or it cannot be read.
+     */
+    static NoteHeadCache load(Path cacheFile, NoteRules rules) throws IOException {
+        Map<String, Entry> previousEntries = new ConcurrentHashMap<>();
+        if (!Files.exists(cacheFile)) {
+            return new NoteHeadCache(rules, previousEntries);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!header(rules).equals(line)) {
+                return new NoteHeadCache(rules, previousEntries);
+            }
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    continue;
+                }
+                NoteHead head = new NoteHead(fields[3].equals("ignored"), FrontMatter.valueOf(fields[4]));
+                previousEntries.put(ExportManifest.unescape(fields[0]),
+                        new Entry(Long.parseLong(fields[1]), Long.parseLong(fields[2]), head));
+            }
+        } catch (IllegalArgumentException e) {
+            // Covers malformed numbers as well, behave as if nothing was cached
+            return new NoteHeadCache(rules, new ConcurrentHashMap<>());
+        }
+        return new NoteHeadCache(rules, previousEntries);
+    }
+
+    /**
+     * Which rules stop at a marker depends on the rules, a cache of other rules is not used.
+     */
+    private static String header(NoteRules rules) {
+        return HEADER + "\t" + rules.describe();
+    }
+
+    /**
+     * The classification of the last run if the note still has this size and modification time, null otherwise.
+     */
+    NoteHead cached(String relativePath, long size, long lastModified) {
+        Entry entry = previousEntries.get(relativePath);
+        if (entry == null || entry.size() != size || entry.lastModified() != lastModified) {
+            return null;
+        }
+        entries.put(relativePath, entry);
+        return entry.head();
+    }
+
+    /**
+     * Reads the head of the note {@code file} and classifies it.
+     */
+    NoteHead classify(Path file, String relativePath, long size, long lastModified) throws IOException {
+        NoteHead head = probe(file);
+        entries.put(relativePath, new Entry(size, lastModified, head));
+        return head;
+    }
+
+    /**
+     * Records that the conversion found the note at {@code relativePath} marked after its head, so the next run
+     * leaves it out up front like the others.
+     */
+    void ignoredLater(String relativePath) {
+        Entry entry = entries.get(relativePath);
+        if (entry != null && !entry.head().ignored()) {
+            entries.put(relativePath, new Entry(entry.size(), entry.lastModified(),
+                    new NoteHead(true, entry.head().frontMatter())));
+            lateIgnoredNotes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Saves the classifications of this run, notes that were not classified are dropped.
+     */
+    void save(Path cacheFile) throws IOException {
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(header(rules));
+            writer.newLine();
+            StringBuilder line = new StringBuilder(128);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry cached = entry.getValue();
+                line.setLength(0);
+                line.append(ExportManifest.escape(entry.getKey())).append('\t')
+                        .append(cached.size()).append('\t')
+                        .append(cached.lastModified()).append('\t')
+                        .append(cached.head().ignored() ? "ignored" : "exported").append('\t')
+                        .append(cached.head().frontMatter().name());
+                writer.append(line);
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Whether this run classified other notes than the saved cache holds.
+     */
+    boolean isModified() {
+        return probedNotes.get() > 0 || lateIgnoredNotes.get() > 0 || entries.size() != previousEntries.size();
+    }
+
+    /**
+     * Number of notes read in this run, the others came from the cache.
+     */
+    int probedNotes() {
+        return probedNotes.get();
+    }
+
+    long probedBytes() {
+        return probedBytes.get();
+    }
+
+    private NoteHead probe(Path file) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(PROBE_SIZE);
+        boolean wholeFile;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (head.hasRemaining() && in.read(head) >= 0) {
+                // Read until the probe is full or the file ends
+            }
+            wholeFile = head.position() == in.size();
+        }
+        head.flip();
+        probedNotes.incrementAndGet();
+        probedBytes.addAndGet(head.limit());
+
+        FrontMatter frontMatter = FrontMatter.NONE;
+        boolean markerLine = false;
+        int limit = head.limit();
+        int start = 0;
+        boolean firstLine = true;
+        while (start < limit && !markerLine) {
+            int end = lineEnd(head, start);
+            if (end == limit && !wholeFile) {
+                // The line goes on after the probe
+                break;
+            }
+            if (firstLine) {
+                if (lineEquals(head, start, end, YAML_MARKER)) {
+                    frontMatter = FrontMatter.YAML;
+                } else if (lineEquals(head, start, end, TAGS_MARKER)) {
+                    frontMatter = FrontMatter.TAGS;
+                }
+                firstLine = false;
+            }
+            markerLine = lineEquals(head, start, end, IGNORED_MARKER);
+            start = nextLine(head, end);
+        }
+        // Few notes have a marker line at all, only those are run through the transformer
+        boolean ignored = markerLine && stopsAtMarker(head, wholeFile);
+        return new NoteHead(ignored, frontMatter);
+    }
+
+    /**
+     * Whether the conversion of a note starting with {@code head} stops at a marker within it.
+     */
+    private boolean stopsAtMarker(ByteBuffer head, boolean wholeFile) throws IOException {
+        QuartoNoteTransformer transformer = idleTransformers.poll();
+        if (transformer == null) {
+            transformer = new QuartoNoteTransformer(NO_LINKS, rules);
+        }
+        try {
+            transformer.begin(Writer.nullWriter(), "", new HashSet<>(), SILENT);
+            int limit = head.limit();
+            int start = 0;
+            while (start < limit) {
+                int end = lineEnd(head, start);
+                if (end == limit && !wholeFile) {
+                    return false;
+                }
+                // Decoded leniently like the conversion, the marker is ASCII anyway
+                String line = StandardCharsets.UTF_8.decode(head.slice(start, end - start)).toString();
+                if (!transformer.accept(line)) {
+                    return transformer.isIgnored();
+                }
+                start = nextLine(head, end);
+            }
+            return false;
+        } finally {
+            idleTransformers.offer(transformer);
+        }
+    }
+
+    private static int lineEnd(ByteBuffer bytes, int start) {
+        int end = start;
+        while (end < bytes.limit() && bytes.get(end) != '\n' && bytes.get(end) != '\r') {
+            end++;
+        }
+        return end;
+    }
+
+    private static int nextLine(ByteBuffer bytes, int end) {
+        return end + 1 < bytes.limit() && bytes.get(end) == '\r' && bytes.get(end + 1) == '\n' ? end + 2 : end + 1;
+    }
+
+    private static boolean lineEquals(ByteBuffer bytes, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,94 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Conversion of one Obsidian construct in the body of a note, applied by a {@link QuartoNoteTransformer}.
+ * <p>
+ * A rule names the short ASCII sequences, its triggers, that occur in every line it could change, like
+ * {@code "[["} for wikilinks. The transformer only passes a line to the rules whose triggers it contains, so a
+ * line without any trigger costs the same no matter how many rules there are. Rules run in the order of their
+ * {@link NoteRules}, each one on the output of the ones before it.
+ * <p>
+ * A rule instance belongs to one transformer and may keep state between the lines of a note, see
+ * {@link Context#holdBlock}. New instances are created through the suppliers in {@link NoteRules}.
+ */
+public interface NoteRule {
+
+    /**
+     * What a rule can read and change of the note being converted.
+     */
+    interface Context {
+
+        /**
+         * The output of the note. Lines end with {@link System#lineSeparator()}.
+         */
+        Writer writer();
+
+        VaultLinkIndex linkIndex();
+
+        /**
+         * Path of the note relative to the vault root, or null if it is not known.
+         */
+        String relativePath();
+
+        MessageObserver observer();
+
+        /**
+         * Reports a wikilink of the note, which is also recorded for the incremental export.
+         */
+        void linkFound(String linkText, boolean converted);
+
+        /**
+         * Reports that a line opened a callout, later lines with fewer {@code '>'} close it again.
+         */
+        void calloutStarted(int depth);
+
+        /**
+         * Marks the note as changed by the export.
+         */
+        void changed();
+
+        /**
+         * Passes every following line of the note to {@code rule} alone, before anything else looks at it,
+         * until the rule calls {@link #releaseBlock()}. For constructs that span several lines.
+         */
+        void holdBlock(NoteRule rule);
+
+        void releaseBlock();
+    }
+
+    /**
+     * Sequences of which every line the rule could change contains at least one. Only ASCII characters.
+     */
+    List<String> triggers();
+
+    /**
+     * Whether the rule also sees the lines of the {@code <!--TAGS-->} block, which are copied otherwise.
+     */
+    default boolean appliesToFrontMatter() {
+        return false;
+    }
+
+    /**
+     * Starts a new note.
+     */
+    default void begin(Context context) {
+    }
+
+    /**
+     * Converts a line that contains one of the triggers, or any line while the rule holds a block.
+     *
+     * @return the line for the following rules, the same instance if nothing changed, or null if the rule
+     * wrote or dropped the line itself. The result is ignored for the lines of a held block.
+     */
+    String apply(String line, Context context) throws IOException;
+
+    /**
+     * Completes the note after its last line.
+     */
+    default void finish(Context context) throws IOException {
+    }
+}
@@ -0,0 +1,180 @@
+package model;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Immutable, ordered set of the {@link NoteRule}s a {@link QuartoNoteTransformer} applies, together with the
+ * table that finds the rules a line triggers in a single pass over its characters.
+ * <p>
+ * {@link #STANDARD} is the conversion the export always did, plus an anchor for every block id a wikilink points
+ * to, so that {@code [[Note#^block]]} lands on its block. A line ending in {@code " ^word"} that nothing links to
+ * stays as it was. {@link #EXTENDED} adds embeds, highlights and math blocks. Further rules are added with
+ * {@link #with}, which returns a new set.
+ */
+public final class NoteRules {
+
+    private static final int MAX_RULES = Long.SIZE;
+
+    public static final NoteRules STANDARD = new NoteRules(List.of(
+            ObsidianRules.TargetDeck::new,
+            ObsidianRules.WikiLinks::new,
+            ObsidianRules.BlockIds::new,
+            ObsidianRules.Callouts::new));
+
+    public static final NoteRules EXTENDED = new NoteRules(List.of(
+            ObsidianRules.TargetDeck::new,
+            ObsidianRules.MathBlocks::new,
+            ObsidianRules.Embeds::new,
+            ObsidianRules.WikiLinks::new,
+            ObsidianRules.BlockIds::new,
+            ObsidianRules.Highlights::new,
+            ObsidianRules.Callouts::new));
+
+    private final List<Supplier<? extends NoteRule>> factories;
+    private final long frontMatterRules;
+    // Triggers and their rule bits by their first character, only ASCII characters can start a trigger
+    private final String[][] triggersByFirstChar = new String[128][];
+    private final long[][] rulesByFirstChar = new long[128][];
+
+    private NoteRules(List<Supplier<? extends NoteRule>> factories) {
+        if (factories.size() > MAX_RULES) {
+            throw new IllegalArgumentException("at most " + MAX_RULES + " rules are supported but got "
+                    + factories.size());
+        }
+        this.factories = List.copyOf(factories);
+        long frontMatter = 0;
+        List<NoteRule> rules = newRules();
+        for (int index = 0; index < rules.size(); index++) {
+            NoteRule rule = rules.get(index);
+            if (rule.appliesToFrontMatter()) {
+                frontMatter |= 1L << index;
+            }
+            for (String trigger : rule.triggers()) {
+                addTrigger(trigger, 1L << index);
+            }
+        }
+        frontMatterRules = frontMatter;
+    }
+
+    /**
+     * These rules followed by {@code rule}, which is created once per transformer.
+     */
+    public NoteRules with(Supplier<? extends NoteRule> rule) {
+        List<Supplier<? extends NoteRule>> extended = new ArrayList<>(factories);
+        extended.add(rule);
+        return new NoteRules(extended);
+    }
+
+    public int size() {
+        return factories.size();
+    }
+
+    List<NoteRule> newRules() {
+        List<NoteRule> rules = new ArrayList<>(factories.size());
+        for (Supplier<? extends NoteRule> factory : factories) {
+            rules.add(factory.get());
+        }
+        return rules;
+    }
+
+    /**
+     * The classes of the rules in order, which tells two sets of rules apart across runs.
+     */
+    String describe() {
+        StringBuilder description = new StringBuilder();
+        for (NoteRule rule : newRules()) {
+            if (!description.isEmpty()) {
+                description.append(',');
+            }
+            description.append(rule.getClass().getName());
+        }
+        return description.toString();
+    }
+
+    /**
+     * Bits of the rules that also see the lines of the {@code <!--TAGS-->} block.
+     */
+    long frontMatterRules() {
+        return frontMatterRules;
+    }
+
+    /**
+     * Bits of the rules whose triggers {@code line} contains, bit {@code i} stands for the rule at index {@code i}.
+     */
+    long candidates(String line) {
+        long candidates = 0;
+        int length = line.length();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < 128 && triggersByFirstChar[c] != null) {
+                String[] triggers = triggersByFirstChar[c];
+                for (int t = 0; t < triggers.length; t++) {
+                    if (line.startsWith(triggers[t], i)) {
+                        candidates |= rulesByFirstChar[c][t];
+                    }
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Whether a trigger of any rule starts at {@code position} of the UTF-8 bytes, which end at {@code limit}.
+     * Bytes of multi-byte characters never start a trigger, their values are all above 127.
+     */
+    boolean startsTrigger(ByteBuffer bytes, int position, int limit) {
+        byte b = bytes.get(position);
+        if (b < 0 || triggersByFirstChar[b] == null) {
+            return false;
+        }
+        for (String trigger : triggersByFirstChar[b]) {
+            if (matches(bytes, position, limit, trigger)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addTrigger(String trigger, long ruleBit) {
+        if (trigger.isEmpty() || !trigger.chars().allMatch(c -> c < 128 && c != '\n' && c != '\r')) {
+            throw new IllegalArgumentException("triggers must be non-empty ASCII without line breaks but got <"
+                    + trigger + ">");
+        }
+        char first = trigger.charAt(0);
+        String[] triggers = triggersByFirstChar[first];
+        if (triggers != null) {
+            for (int t = 0; t < triggers.length; t++) {
+                if (triggers[t].equals(trigger)) {
+                    rulesByFirstChar[first][t] |= ruleBit;
+                    return;
+                }
+            }
+        }
+        int count = triggers == null ? 0 : triggers.length;
+        String[] extendedTriggers = new String[count + 1];
+        long[] extendedRules = new long[count + 1];
+        if (triggers != null) {
+            System.arraycopy(triggers, 0, extendedTriggers, 0, count);
+            System.arraycopy(rulesByFirstChar[first], 0, extendedRules, 0, count);
+        }
+        extendedTriggers[count] = trigger;
+        extendedRules[count] = ruleBit;
+        triggersByFirstChar[first] = extendedTriggers;
+        rulesByFirstChar[first] = extendedRules;
+    }
+
+    private static boolean matches(ByteBuffer bytes, int position, int limit, String trigger) {
+        if (limit - position < trigger.length()) {
+            return false;
+        }
+        for (int i = 1; i < trigger.length(); i++) {
+            if (bytes.get(position + i) != trigger.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,362 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link NoteRule}s for the Obsidian constructs the export converts, see {@link NoteRules} for the sets they
+ * are used in.
+ */
+final class ObsidianRules {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private ObsidianRules() {
+    }
+
+    /**
+     * {@code TARGET DECK} of the Obsidian to Anki plugin: the two lines after it are dropped, the third is the deck
+     * name and becomes a heading, the fourth is dropped again.
+     */
+    static final class TargetDeck implements NoteRule {
+        private int step;
+
+        @Override
+        public List<String> triggers() {
+            return List.of("TARGET DECK");
+        }
+
+        @Override
+        public boolean appliesToFrontMatter() {
+            return true;
+        }
+
+        @Override
+        public void begin(Context context) {
+            step = 0;
+        }
+
+        @Override
+        public String apply(String line, Context context) throws IOException {
+            if (step == 0) {
+                if (!line.equals("TARGET DECK")) {
+                    return line;
+                }
+                step = 1;
+                context.changed();
+                context.observer().notify(MessageEvent.info(Type.NOTE_CONVERTED, null,
+                        () -> "Applied TARGET DECK template changes"));
+                context.holdBlock(this);
+                return null;
+            }
+            if (step == 3) {
+                writeTitle(line, context.writer());
+            }
+            step = step == 4 ? 0 : step + 1;
+            if (step == 0) {
+                context.releaseBlock();
+            }
+            return null;
+        }
+
+        @Override
+        public void finish(Context context) throws IOException {
+            if (step > 0 && step <= 3) {
+                writeTitle(null, context.writer());
+            }
+        }
+
+        private static void writeTitle(String deckName, Writer writer) throws IOException {
+            writer.write("## ");
+            writer.write(String.valueOf(deckName));
+            writer.write(LINE_SEPARATOR);
+            writer.write(LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Replaces every resolvable {@code [[link]]} with a Markdown link, and links to images that are not part of the
+     * vault with a link to the image at the root of the export.
+     */
+    static final class WikiLinks implements NoteRule {
+        private static final Pattern LINK_PATTERN = Pattern.compile("\\[\\[([^\\]]+)\\]\\]");
+
+        private final Matcher linkMatcher = LINK_PATTERN.matcher("");
+        private final StringBuilder lineBuffer = new StringBuilder(256);
+
+        @Override
+        public List<String> triggers() {
+            return List.of("[[");
+        }
+
+        @Override
+        public String apply(String line, Context context) {
+            linkMatcher.reset(line);
+            if (!linkMatcher.find()) {
+                return line;
+            }
+            lineBuffer.setLength(0);
+            int tail = 0;
+            do {
+                String linkText = linkMatcher.group(1);
+                String target = context.linkIndex().resolve(linkText);
+                if (target != null) {
+                    context.linkFound(linkText, true);
+                    lineBuffer.append(line, tail, linkMatcher.start())
+                            .append('[').append(VaultLinkIndex.displayText(linkText)).append("](").append(target).append(')');
+                    tail = linkMatcher.end();
+                } else {
+                    String targetText = VaultLinkIndex.targetText(linkText);
+                    boolean image = isImage(targetText);
+                    context.linkFound(linkText, image);
+                    if (image) {
+                        lineBuffer.append(line, tail, linkMatcher.start())
+                                .append("[](</").append(targetText).append(">)");
+                        tail = linkMatcher.end();
+                    }
+                }
+            } while (linkMatcher.find());
+            if (tail == 0) {
+                return line;
+            }
+            lineBuffer.append(line, tail, line.length());
+            return lineBuffer.toString();
+        }
+    }
+
+    /**
+     * Turns a block id at the end of a line into an empty span with the anchor that block links point to, if a
+     * wikilink of the vault points to it.
+     */
+    static final class BlockIds implements NoteRule {
+
+        @Override
+        public List<String> triggers() {
+            return List.of("^");
+        }
+
+        @Override
+        public String apply(String line, Context context) {
+            String blockId = VaultLinkIndex.blockId(line);
+            // Without a link to it the line stays as it was, a caret may just be text like "x ^2"
+            if (blockId == null || !context.linkIndex().isLinkedBlock(context.relativePath(), blockId)) {
+                return line;
+            }
+            int caret = line.lastIndexOf('^');
+            return line.substring(0, caret) + "[]{#" + VaultLinkIndex.blockAnchor(blockId) + "}";
+        }
+    }
+
+    /**
+     * Starts a Quarto callout for an Obsidian callout like {@code > [!info] Title}. The transformer closes it
+     * again at the first line with fewer {@code '>'}.
+     */
+    static final class Callouts implements NoteRule {
+        private static final Pattern CALLOUT_PATTERN = Pattern.compile("\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
+        private static final Pattern NESTED_CALLOUT_PATTERN = Pattern.compile("\\s*>\\s*>\\s*\\[!(\\w+)]\\s*(.*)");
+        private static final Map<String, String> CALLOUT_TITLES = Map.of(
+                "info", "note",
+                "abstract", "note",
+                "todo", "note",
+                "success", "tip",
+                "question", "caution",
+                "failure", "important",
+                "danger", "important",
+                "bug", "important",
+                "example", "note",
+                "quote", "tip");
+
+        private final Matcher calloutMatcher = CALLOUT_PATTERN.matcher("");
+        private final Matcher nestedCalloutMatcher = NESTED_CALLOUT_PATTERN.matcher("");
+
+        @Override
+        public List<String> triggers() {
+            return List.of("[!");
+        }
+
+        @Override
+        public String apply(String line, Context context) throws IOException {
+            if (line.indexOf('>') < 0) {
+                return line;
+            }
+            nestedCalloutMatcher.reset(line);
+            if (nestedCalloutMatcher.find()) {
+                writeCalloutStart(nestedCalloutMatcher, context.writer());
+                context.calloutStarted(2);
+                return null;
+            }
+            calloutMatcher.reset(line);
+            if (calloutMatcher.find()) {
+                writeCalloutStart(calloutMatcher, context.writer());
+                context.calloutStarted(1);
+                return null;
+            }
+            return line;
+        }
+
+        private static void writeCalloutStart(Matcher matcher, Writer writer) throws IOException {
+            String calloutType = CALLOUT_TITLES.getOrDefault(matcher.group(1).toLowerCase(), matcher.group(1));
+            String title = matcher.group(2).trim();
+            writer.write("::: {.callout-");
+            writer.write(calloutType);
+            writer.write(" title=\"");
+            writer.write(title);
+            writer.write("\"}");
+            writer.write(LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Embeds {@code ![[...]]}: images become Markdown images, with the size of {@code ![[image.png|300]]} or
+     * {@code ![[image.png|300x200]]} as attributes, embedded notes become links to the note. Embeds of notes that
+     * are not part of the vault are left to the wikilink rule.
+     */
+    static final class Embeds implements NoteRule {
+        private static final Pattern EMBED_PATTERN = Pattern.compile("!\\[\\[([^\\]]+)\\]\\]");
+        private static final Pattern SIZE_PATTERN = Pattern.compile("(\\d+)(?:x(\\d+))?");
+
+        private final Matcher embedMatcher = EMBED_PATTERN.matcher("");
+        private final Matcher sizeMatcher = SIZE_PATTERN.matcher("");
+        private final StringBuilder lineBuffer = new StringBuilder(256);
+
+        @Override
+        public List<String> triggers() {
+            return List.of("![[");
+        }
+
+        @Override
+        public String apply(String line, Context context) {
+            embedMatcher.reset(line);
+            if (!embedMatcher.find()) {
+                return line;
+            }
+            lineBuffer.setLength(0);
+            int tail = 0;
+            do {
+                String linkText = embedMatcher.group(1);
+                String targetText = VaultLinkIndex.targetText(linkText);
+                String target = context.linkIndex().resolve(linkText);
+                if (isImage(targetText)) {
+                    context.linkFound(linkText, true);
+                    lineBuffer.append(line, tail, embedMatcher.start())
+                            .append("![](").append(target != null ? target : "</" + targetText + ">").append(')');
+                    appendSize(linkText);
+                    tail = embedMatcher.end();
+                } else if (target != null) {
+                    context.linkFound(linkText, true);
+                    lineBuffer.append(line, tail, embedMatcher.start())
+                            .append('[').append(VaultLinkIndex.displayText(linkText)).append("](").append(target).append(')');
+                    tail = embedMatcher.end();
+                }
+            } while (embedMatcher.find());
+            if (tail == 0) {
+                return line;
+            }
+            lineBuffer.append(line, tail, line.length());
+            return lineBuffer.toString();
+        }
+
+        private void appendSize(String linkText) {
+            int separator = linkText.indexOf('|');
+            if (separator < 0 || !sizeMatcher.reset(linkText.substring(separator + 1).trim()).matches()) {
+                return;
+            }
+            lineBuffer.append("{width=").append(sizeMatcher.group(1));
+            if (sizeMatcher.group(2) != null) {
+                lineBuffer.append(" height=").append(sizeMatcher.group(2));
+            }
+            lineBuffer.append('}');
+        }
+    }
+
+    /**
+     * Highlights {@code ==text==} become Pandoc spans with the {@code mark} class. Runs of {@code '='} like the
+     * underline of a heading are left alone.
+     */
+    static final class Highlights implements NoteRule {
+        private static final Pattern HIGHLIGHT_PATTERN = Pattern.compile("==([^=\\s](?:[^=]*[^=\\s])?)==");
+
+        private final Matcher highlightMatcher = HIGHLIGHT_PATTERN.matcher("");
+        private final StringBuilder lineBuffer = new StringBuilder(256);
+
+        @Override
+        public List<String> triggers() {
+            return List.of("==");
+        }
+
+        @Override
+        public String apply(String line, Context context) {
+            highlightMatcher.reset(line);
+            if (!highlightMatcher.find()) {
+                return line;
+            }
+            lineBuffer.setLength(0);
+            int tail = 0;
+            do {
+                lineBuffer.append(line, tail, highlightMatcher.start())
+                        .append('[').append(line, highlightMatcher.start(1), highlightMatcher.end(1)).append("]{.mark}");
+                tail = highlightMatcher.end();
+            } while (highlightMatcher.find());
+            lineBuffer.append(line, tail, line.length());
+            return lineBuffer.toString();
+        }
+    }
+
+    /**
+     * Display math between {@code $$} lines is copied unchanged, without the empty line the export puts after
+     * every other line, which would end the formula for Pandoc. Nothing inside is converted.
+     */
+    static final class MathBlocks implements NoteRule {
+        private boolean inBlock;
+
+        @Override
+        public List<String> triggers() {
+            return List.of("$$");
+        }
+
+        @Override
+        public void begin(Context context) {
+            inBlock = false;
+        }
+
+        @Override
+        public String apply(String line, Context context) throws IOException {
+            Writer writer = context.writer();
+            String trimmed = line.strip();
+            if (!inBlock) {
+                if (!trimmed.startsWith("$$")) {
+                    return line;
+                }
+                context.changed();
+                writer.write(line);
+                writer.write(LINE_SEPARATOR);
+                if (trimmed.length() >= 4 && trimmed.endsWith("$$")) {
+                    // The whole formula on one line
+                    writer.write(LINE_SEPARATOR);
+                } else {
+                    inBlock = true;
+                    context.holdBlock(this);
+                }
+                return null;
+            }
+            writer.write(line);
+            writer.write(LINE_SEPARATOR);
+            if (trimmed.endsWith("$$")) {
+                inBlock = false;
+                context.releaseBlock();
+                writer.write(LINE_SEPARATOR);
+            }
+            return null;
+        }
+    }
+
+    private static boolean isImage(String targetText) {
+        return targetText.endsWith(".png") || targetText.endsWith(".jpg");
+    }
+}
@@ -0,0 +1,379 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+
+/**
+ * Converts the lines of one Obsidian note into Quarto Markdown.
+ * <p>
+ * Lines are pushed in one at a time with {@link #accept(String)}, so the transformer does not care where
+ * they come from. The transformer itself handles the front matter, ignored notes and closing callouts, the
+ * constructs in the body of the note are converted by its {@link NoteRules}. An instance keeps its rules and
+ * buffers between notes and can be reused with {@link #begin}, but it must only be used by one thread at a time.
+ */
+public class QuartoNoteTransformer {
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final VaultLinkIndex linkIndex;
+    private final NoteRules rules;
+    private final NoteRule[] ruleInstances;
+    private final NoteRule.Context context = new RuleContext();
+
+    private Writer writer;
+    private String relativePath;
+    private Set<String> links;
+    private MessageObserver observer;
+
+    private boolean isInTags;
+    private boolean madeChanges;
+    private boolean hasSeenTags;
+    private boolean skippingLeadingEmptyLines;
+    private boolean ignored;
+    private boolean seenAnyLine;
+    private int linesToSkip;
+    private NoteRule heldRule;
+    private int calloutDepth;
+    private int lineCount;
+    private int calloutCount;
+    private int linkCount;
+    private int unresolvedLinkCount;
+
+    /**
+     * @param linkIndex resolves the wikilinks of the vault. Only read, never changed.
+     */
+    public QuartoNoteTransformer(VaultLinkIndex linkIndex) {
+        this(linkIndex, NoteRules.STANDARD);
+    }
+
+    /**
+     * @param linkIndex resolves the wikilinks of the vault. Only read, never changed.
+     * @param rules     the conversions of the note body, in the order they are applied
+     */
+    public QuartoNoteTransformer(VaultLinkIndex linkIndex, NoteRules rules) {
+        this.linkIndex = linkIndex;
+        this.rules = rules;
+        this.ruleInstances = rules.newRules().toArray(new NoteRule[0]);
+    }
+
+    NoteRules rules() {
+        return rules;
+    }
+
+    /**
+     * Starts a new note and writes the front matter that every exported note gets.
+     *
+     * @param date  the export date written into the front matter
+     * @param links receives the text of every wikilink found in the note
+     */
+    public void begin(Writer writer, String date, Set<String> links, MessageObserver observer) throws IOException {
+        begin(writer, null, date, links, observer);
+    }
+
+    /**
+     * Like {@link #begin(Writer, String, Set, MessageObserver)} for the note at {@code relativePath} in the vault,
+     * which the rules look up in the link index. Block ids only get their anchors then.
+     */
+    public void begin(Writer writer, String relativePath, String date, Set<String> links, MessageObserver observer)
+            throws IOException {
+        this.writer = writer;
+        this.relativePath = relativePath;
+        this.links = links;
+        this.observer = observer;
+        isInTags = false;
+        madeChanges = false;
+        hasSeenTags = false;
+        skippingLeadingEmptyLines = false;
+        ignored = false;
+        seenAnyLine = false;
+        linesToSkip = 0;
+        heldRule = null;
+        calloutDepth = 0;
+        lineCount = 0;
+        calloutCount = 0;
+        linkCount = 0;
+        unresolvedLinkCount = 0;
+
+        writer.write("---");
+        writer.write(LINE_SEPARATOR);
+        writer.write("date: ");
+        writer.write(date);
+        writer.write(LINE_SEPARATOR);
+        for (NoteRule rule : ruleInstances) {
+            rule.begin(context);
+        }
+    }
+
+    /**
+     * Converts the next line of the note, without its line terminator.
+     *
+     * @return false once the note turned out to be ignored, further lines are not needed then
+     */
+    public boolean accept(String line) throws IOException {
+        if (ignored) {
+            return false;
+        }
+        seenAnyLine = true;
+        lineCount++;
+        if (linesToSkip > 0) {
+            linesToSkip--;
+            return true;
+        }
+        if (heldRule != null) {
+            heldRule.apply(line, context);
+            return true;
+        }
+        if (skippingLeadingEmptyLines) {
+            if (!line.isEmpty()) {
+                skippingLeadingEmptyLines = false;
+                endFrontMatter();
+                convertBodyLine(line);
+            }
+            return true;
+        }
+
+        if (line.startsWith("<!--")) {
+            if (line.equals("<!--IGNORED_FILE-->")) {
+                ignored = true;
+                observer.notify(MessageEvent.info(Type.FILE_IGNORED, null, () -> "File ignored"));
+                return false;
+            }
+            if (line.equals("<!--TAGS-->")) {
+                isInTags = true;
+                hasSeenTags = true;
+                linesToSkip = 1;
+                observer.notify(MessageEvent.info(Type.NOTE_CONVERTED, null, () -> "Started reading tags"));
+                return true;
+            }
+            if (line.equals("<!--/TAGS-->")) {
+                isInTags = false;
+                observer.notify(MessageEvent.info(Type.NOTE_CONVERTED, null, () -> "Done reading tags"));
+                return true;
+            }
+        }
+        if (!hasSeenTags) {
+            hasSeenTags = true;
+            if (line.isEmpty()) {
+                // Empty lines between the front matter and the content are dropped
+                skippingLeadingEmptyLines = true;
+                return true;
+            }
+            endFrontMatter();
+        }
+        convertBodyLine(line);
+        return true;
+    }
+
+    /**
+     * Completes the note after its last line.
+     */
+    public void finish() throws IOException {
+        if (ignored) {
+            return;
+        }
+        if (!seenAnyLine) {
+            // Empty note, the front matter still has to be closed
+            writer.write("---");
+            return;
+        }
+        for (NoteRule rule : ruleInstances) {
+            rule.finish(context);
+        }
+        if (skippingLeadingEmptyLines) {
+            skippingLeadingEmptyLines = false;
+            endFrontMatter();
+            convertBodyLine("");
+        }
+    }
+
+    /**
+     * Whether a line without markup would currently be written unchanged, followed by a line separator and,
+     * unless it is empty, by a second one. A caller that can tell such lines apart more cheaply than
+     * {@link #accept} may write them itself and report them with {@link #plainLineWritten}.
+     * <p>
+     * A line has markup if it contains a trigger of one of the rules or starts with {@code "<!--"}.
+     */
+    public boolean writesPlainLinesUnchanged() {
+        return hasSeenTags && !ignored && !isInTags && !skippingLeadingEmptyLines && linesToSkip == 0
+                && heldRule == null && calloutDepth == 0;
+    }
+
+    public void plainLineWritten(boolean empty) {
+        seenAnyLine = true;
+        lineCount++;
+        if (!empty) {
+            madeChanges = true;
+        }
+    }
+
+    public boolean isIgnored() {
+        return ignored;
+    }
+
+    public boolean madeChanges() {
+        return madeChanges;
+    }
+
+    /**
+     * Lines of the current note so far, including the ones reported with {@link #plainLineWritten}.
+     */
+    int lineCount() {
+        return lineCount;
+    }
+
+    int calloutCount() {
+        return calloutCount;
+    }
+
+    /**
+     * Wikilinks of the current note that were turned into Markdown links, image links included.
+     */
+    int linkCount() {
+        return linkCount;
+    }
+
+    /**
+     * Wikilinks of the current note that were left as they are, because no note of the vault matches them.
+     */
+    int unresolvedLinkCount() {
+        return unresolvedLinkCount;
+    }
+
+    private void endFrontMatter() throws IOException {
+        writer.write("---");
+        writer.write(LINE_SEPARATOR);
+    }
+
+    private void convertBodyLine(String line) throws IOException {
+        String modifiedLine = applyRules(line, isInTags ? rules.frontMatterRules() : -1L);
+        if (modifiedLine == null) {
+            return;
+        }
+        if (isInTags) {
+            writer.write(modifiedLine);
+            writer.write(LINE_SEPARATOR);
+            return;
+        }
+
+        int geCharCount = countGreaterThan(modifiedLine);
+        if (geCharCount < calloutDepth) {
+            for (int i = 0; i < calloutDepth - geCharCount; i++) {
+                writer.write(":::");
+                writer.write(LINE_SEPARATOR);
+                writer.write(LINE_SEPARATOR);
+            }
+            calloutDepth = geCharCount;
+        }
+        if (calloutDepth > 0 && geCharCount > 0) {
+            writeWithoutGreaterThan(modifiedLine);
+        } else {
+            writer.write(modifiedLine);
+        }
+        writer.write(LINE_SEPARATOR);
+
+        if (!line.isEmpty()) {
+            madeChanges = true;
+            writer.write(LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Runs the rules whose triggers the line contains, each on the output of the ones before. A changed line is
+     * checked for triggers again, for the rules that are still to come. Returns null if a rule took the line.
+     */
+    String applyRules(String line, long allowedRules) throws IOException {
+        long candidates = rules.candidates(line) & allowedRules;
+        while (candidates != 0) {
+            int index = Long.numberOfTrailingZeros(candidates);
+            String result = ruleInstances[index].apply(line, context);
+            if (result == null) {
+                return null;
+            }
+            long laterRules = allowedRules & (-2L << index);
+            if (result != line) {
+                line = result;
+                candidates = rules.candidates(line) & laterRules;
+            } else {
+                candidates &= laterRules;
+            }
+        }
+        return line;
+    }
+
+    private static int countGreaterThan(String line) {
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '>') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void writeWithoutGreaterThan(String line) throws IOException {
+        int start = 0;
+        int index;
+        while ((index = line.indexOf('>', start)) >= 0) {
+            writer.write(line, start, index - start);
+            start = index + 1;
+        }
+        writer.write(line, start, line.length() - start);
+    }
+
+    private class RuleContext implements NoteRule.Context {
+
+        @Override
+        public Writer writer() {
+            return writer;
+        }
+
+        @Override
+        public VaultLinkIndex linkIndex() {
+            return linkIndex;
+        }
+
+        @Override
+        public String relativePath() {
+            return relativePath;
+        }
+
+        @Override
+        public MessageObserver observer() {
+            return observer;
+        }
+
+        @Override
+        public void linkFound(String linkText, boolean converted) {
+            links.add(linkText);
+            if (converted) {
+                linkCount++;
+            } else {
+                unresolvedLinkCount++;
+            }
+        }
+
+        @Override
+        public void calloutStarted(int depth) {
+            calloutCount++;
+            calloutDepth = depth;
+        }
+
+        @Override
+        public void changed() {
+            madeChanges = true;
+        }
+
+        @Override
+        public void holdBlock(NoteRule rule) {
+            heldRule = rule;
+        }
+
+        @Override
+        public void releaseBlock() {
+            heldRule = null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package model;
+
+/**
+ * Adds an entry to the {@code project.resources} in the text of a {@code _quarto.yml}, the files Quarto copies into
+ * the rendered site although no page links to them. A line based edit like {@link QuartoSidebarSection}: every
+ * other line stays as it was.
+ */
+final class QuartoProjectResources {
+
+    private QuartoProjectResources() {
+    }
+
+    /**
+     * {@code configuration} with {@code resource} among the project resources. A block list gets another item, a
+     * flow list or a single value becomes a flow list with the resource added, and a missing {@code resources} key
+     * or {@code project} section is created. Returns {@code configuration} itself if it already names the resource.
+     */
+    static String addResource(String configuration, String resource) {
+        if (configuration.contains(resource)) {
+            return configuration;
+        }
+        String lineSeparator = configuration.contains("\r\n") ? "\r\n" : "\n";
+        String item = "- \"" + resource + "\"";
+        int projectKey = QuartoSidebarSection.findKey(configuration, 0, -1, "project:");
+        while (projectKey >= 0 && QuartoSidebarSection.indentation(configuration, projectKey) > 0) {
+            projectKey = QuartoSidebarSection.findKey(configuration,
+                    QuartoSidebarSection.nextLine(configuration, projectKey), -1, "project:");
+        }
+        if (projectKey < 0) {
+            String separator = configuration.isEmpty() || configuration.endsWith("\n") ? "" : lineSeparator;
+            return configuration + separator + "project:" + lineSeparator + "  resources:" + lineSeparator
+                    + "    " + item + lineSeparator;
+        }
+
+        int projectContent = QuartoSidebarSection.nextLine(configuration, projectKey);
+        int childIndentation = firstChildIndentation(configuration, projectContent, 0);
+        int resourcesKey = QuartoSidebarSection.findKey(configuration, projectContent, 0, "resources:");
+        while (resourcesKey >= 0 && QuartoSidebarSection.indentation(configuration, resourcesKey) != childIndentation) {
+            resourcesKey = QuartoSidebarSection.findKey(configuration,
+                    QuartoSidebarSection.nextLine(configuration, resourcesKey), 0, "resources:");
+        }
+        if (resourcesKey < 0) {
+            String indentation = " ".repeat(childIndentation);
+            return insertLine(configuration, projectKey, indentation + "resources:" + lineSeparator
+                    + indentation + "  " + item, lineSeparator);
+        }
+
+        int keyColumn = QuartoSidebarSection.keyColumn(configuration, resourcesKey);
+        int valueStart = resourcesKey + keyColumn + "resources:".length();
+        int valueEnd = QuartoSidebarSection.lineEnd(configuration, resourcesKey);
+        String value = configuration.substring(valueStart, valueEnd).trim();
+        if (value.isEmpty() || value.startsWith("#")) {
+            // Block list, the new item goes first with the indentation of the others
+            int itemIndentation = firstChildIndentation(configuration,
+                    QuartoSidebarSection.nextLine(configuration, resourcesKey), keyColumn);
+            return insertLine(configuration, resourcesKey, " ".repeat(itemIndentation) + item, lineSeparator);
+        }
+        String values = value.startsWith("[") && value.endsWith("]") ? value.substring(1, value.length() - 1).trim()
+                : value;
+        String list = "[" + (values.isEmpty() ? "" : values + ", ") + "\"" + resource + "\"]";
+        return configuration.substring(0, valueStart) + " " + list + configuration.substring(valueEnd);
+    }
+
+    /**
+     * Indentation of the first line from {@code from} on if it is deeper than {@code parentColumn}, otherwise two
+     * spaces deeper than the parent.
+     */
+    private static int firstChildIndentation(String text, int from, int parentColumn) {
+        for (int line = from; line < text.length(); line = QuartoSidebarSection.nextLine(text, line)) {
+            if (!QuartoSidebarSection.isBlank(text, line)) {
+                int indentation = QuartoSidebarSection.indentation(text, line);
+                return indentation > parentColumn ? indentation : parentColumn + 2;
+            }
+        }
+        return parentColumn + 2;
+    }
+
+    private static String insertLine(String text, int afterLine, String inserted, String lineSeparator) {
+        int end = QuartoSidebarSection.lineEnd(text, afterLine);
+        return text.substring(0, end) + lineSeparator + inserted + text.substring(end);
+    }
+}
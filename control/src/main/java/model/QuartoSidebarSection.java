@@ -0,0 +1,140 @@
+package model;
+
+/**
+ * Finds the {@code contents} of the {@code sidebar} in the text of a {@code _quarto.yml} and replaces them, leaving
+ * every other line as it was. This is a line based edit, not a YAML parser: the section is the first
+ * {@code contents:} key inside the block of a {@code sidebar:} key, and its value ends at the first line that is
+ * indented no deeper than the key and is not a list item at the level of the key.
+ */
+final class QuartoSidebarSection {
+
+    private QuartoSidebarSection() {
+    }
+
+    /**
+     * {@code configuration} with the sidebar contents replaced by {@code sidebar}, whose top level entries are
+     * indented by {@code sidebarIndentation} spaces and are moved to two spaces right of the {@code contents:} key.
+     * A value on the line of the key, like {@code contents: auto}, is replaced as well. Returns null if the
+     * configuration has no such section.
+     */
+    static String replaceContents(String configuration, String sidebar, int sidebarIndentation) {
+        String lineSeparator = configuration.contains("\r\n") ? "\r\n" : "\n";
+        int sidebarKey = findKey(configuration, 0, -1, "sidebar:");
+        if (sidebarKey < 0) {
+            return null;
+        }
+        int sidebarIndentationInFile = indentation(configuration, sidebarKey);
+        int contentsKey = findKey(configuration, nextLine(configuration, sidebarKey), sidebarIndentationInFile,
+                "contents:");
+        if (contentsKey < 0) {
+            return null;
+        }
+
+        int keyColumn = keyColumn(configuration, contentsKey);
+        int valueStart = contentsKey + keyColumn + "contents:".length();
+        // The value ends after its last line, empty lines after it stay where they are
+        int valueEnd = lineEnd(configuration, contentsKey);
+        for (int line = nextLine(configuration, contentsKey); line < configuration.length();
+             line = nextLine(configuration, line)) {
+            if (isBlank(configuration, line)) {
+                continue;
+            }
+            int lineIndentation = indentation(configuration, line);
+            if (lineIndentation < keyColumn || lineIndentation == keyColumn
+                    && !configuration.startsWith("- ", line + lineIndentation)) {
+                break;
+            }
+            valueEnd = lineEnd(configuration, line);
+        }
+
+        StringBuilder patched = new StringBuilder(configuration.length() + sidebar.length());
+        patched.append(configuration, 0, valueStart);
+        String addedIndentation = " ".repeat(Math.max(0, keyColumn + 2 - sidebarIndentation));
+        int removedIndentation = Math.max(0, sidebarIndentation - keyColumn - 2);
+        boolean empty = true;
+        int lineStart = 0;
+        while (lineStart < sidebar.length()) {
+            int lineEnd = lineEnd(sidebar, lineStart);
+            if (!isBlank(sidebar, lineStart)) {
+                empty = false;
+                patched.append(lineSeparator).append(addedIndentation)
+                        .append(sidebar, lineStart + Math.min(removedIndentation, indentation(sidebar, lineStart)),
+                                lineEnd);
+            }
+            lineStart = nextLine(sidebar, lineStart);
+        }
+        if (empty) {
+            patched.append(" []");
+        }
+        patched.append(configuration, valueEnd, configuration.length());
+        return patched.toString();
+    }
+
+    /**
+     * Start of the first line from {@code from} on whose key is {@code key}, or -1. With a {@code parentIndentation}
+     * of at least 0 only the block of the parent is searched, which ends at the first line indented no deeper.
+     */
+    static int findKey(String text, int from, int parentIndentation, String key) {
+        for (int line = from; line < text.length(); line = nextLine(text, line)) {
+            if (isBlank(text, line) || text.startsWith("#", line + indentation(text, line))) {
+                continue;
+            }
+            if (parentIndentation >= 0 && indentation(text, line) <= parentIndentation) {
+                return -1;
+            }
+            int column = keyColumn(text, line);
+            if (text.startsWith(key, line + column) && endsKey(text, line + column + key.length())) {
+                return line;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Column of the key of a line, behind the {@code "- "} of a list item.
+     */
+    static int keyColumn(String text, int line) {
+        int column = indentation(text, line);
+        while (text.startsWith("- ", line + column)) {
+            column += 2;
+            while (line + column < text.length() && text.charAt(line + column) == ' ') {
+                column++;
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Whether a key that ends at {@code position} is followed by its value or the end of the line, as YAML wants.
+     */
+    private static boolean endsKey(String text, int position) {
+        return position >= text.length() || text.charAt(position) == ' ' || text.charAt(position) == '\t'
+                || text.charAt(position) == '\r' || text.charAt(position) == '\n';
+    }
+
+    static int indentation(String text, int line) {
+        int position = line;
+        while (position < text.length() && text.charAt(position) == ' ') {
+            position++;
+        }
+        return position - line;
+    }
+
+    static boolean isBlank(String text, int line) {
+        int position = line + indentation(text, line);
+        return position >= text.length() || text.charAt(position) == '\r' || text.charAt(position) == '\n';
+    }
+
+    static int lineEnd(String text, int line) {
+        int end = text.indexOf('\n', line);
+        if (end < 0) {
+            return text.length();
+        }
+        return end > line && text.charAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    static int nextLine(String text, int line) {
+        int end = text.indexOf('\n', line);
+        return end < 0 ? text.length() : end + 1;
+    }
+}
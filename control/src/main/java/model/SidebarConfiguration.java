@@ -0,0 +1,61 @@
+package model;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiPredicate;
+
+/**
+ * Immutable settings of a {@link WebsiteSidebarTextGenerator}. Start from {@link #DEFAULT} and change single
+ * settings with the {@code with...} methods, which return a new configuration.
+ *
+ * @param excludedDirectories directory names that are left out together with everything below them
+ * @param indentation         number of spaces in front of the top level entries
+ * @param sortPolicy          order of the entries of one directory, compares file names. With
+ *                            {@link ChapterKey#ORDER} every name is only parsed once per listing.
+ * @param indexFileDetection  tells whether a file (second argument) is the index file of a directory
+ *                            (first argument). Index files become the section href instead of an entry.
+ */
+public record SidebarConfiguration(Set<String> excludedDirectories, int indentation, Comparator<String> sortPolicy,
+                                   BiPredicate<String, String> indexFileDetection) {
+
+    public static final List<String> DEFAULT_EXCLUDED_DIRECTORIES = List.of(
+            ".obsidian", ".quarto", "_book", "public", "_site",
+            "TEMPLATES", "exportFiles", ".git", ".github"
+    );
+
+    /**
+     * The sidebar format of the Quarto books: six spaces indentation, chapters in numbering order and Markdown files
+     * starting with the directory name as section index.
+     */
+    public static final SidebarConfiguration DEFAULT = new SidebarConfiguration(
+            Set.copyOf(DEFAULT_EXCLUDED_DIRECTORIES), 6, ChapterKey.ORDER,
+            (directoryName, fileName) -> isMarkdownFile(fileName) && fileName.startsWith(directoryName));
+
+    public SidebarConfiguration {
+        excludedDirectories = Set.copyOf(excludedDirectories);
+        if (indentation < 0) {
+            throw new IllegalArgumentException("indentation must not be negative but was " + indentation);
+        }
+    }
+
+    public SidebarConfiguration withExcludedDirectories(Set<String> excludedDirectories) {
+        return new SidebarConfiguration(excludedDirectories, indentation, sortPolicy, indexFileDetection);
+    }
+
+    public SidebarConfiguration withIndentation(int indentation) {
+        return new SidebarConfiguration(excludedDirectories, indentation, sortPolicy, indexFileDetection);
+    }
+
+    public SidebarConfiguration withSortPolicy(Comparator<String> sortPolicy) {
+        return new SidebarConfiguration(excludedDirectories, indentation, sortPolicy, indexFileDetection);
+    }
+
+    public SidebarConfiguration withIndexFileDetection(BiPredicate<String, String> indexFileDetection) {
+        return new SidebarConfiguration(excludedDirectories, indentation, sortPolicy, indexFileDetection);
+    }
+
+    static boolean isMarkdownFile(String fileName) {
+        return fileName.endsWith(".md") || fileName.endsWith(".qmd");
+    }
+}
@@ -0,0 +1,168 @@
+package model;
+
+import model.WebsiteSidebarTextGenerator.DirectoryEntry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The directory listings of the last sidebar run, saved as {@value #FILE_NAME} in Quarto's own cache directory
+ * {@value #DIRECTORY_NAME} of the vault, which the sidebar leaves out, so the notes themselves are never written.
+ * Adding, removing or renaming an entry changes the modification time of its directory, so a directory that still
+ * has the time of the last run is not listed again: one attribute read instead of one per entry. {@link #list} may
+ * be called from several threads at once.
+ * <p>
+ * A directory changed shortly before the last run was listed is listed again anyway, its modification time may
+ * not have moved for a change that came after the listing.
+ */
+class SidebarSnapshot {
+
+    static final String DIRECTORY_NAME = ".quarto";
+    static final String FILE_NAME = "sidebar-snapshot";
+    private static final String HEADER = "# sidebar-snapshot v1";
+    private static final String END = "# end";
+    // Larger than the time resolution of any file system a vault is likely on
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private record Listing(long lastModified, List<DirectoryEntry> entries) {
+    }
+
+    private final Path rootDirectory;
+    private final long previousTakenNanos;
+    private final Map<String, Listing> previousListings;
+    private final Map<String, Listing> listings = new ConcurrentHashMap<>();
+    private final long takenNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final AtomicInteger listedDirectories = new AtomicInteger();
+    private final AtomicInteger reusedDirectories = new AtomicInteger();
+
+    private SidebarSnapshot(Path rootDirectory, long previousTakenNanos, Map<String, Listing> previousListings) {
+        this.rootDirectory = rootDirectory;
+        this.previousTakenNanos = previousTakenNanos;
+        this.previousListings = previousListings;
+    }
+
+    /**
+     * Where the snapshot of the vault at {@code rootDirectory} is saved.
+     */
+    static Path file(Path rootDirectory) {
+        return rootDirectory.resolve(DIRECTORY_NAME).resolve(FILE_NAME);
+    }
+
+    /**
+     * The snapshot of {@code rootDirectory} saved in {@code snapshotFile}, or an empty one if there is none or it
+     * cannot be read.
+     */
+    static SidebarSnapshot load(Path snapshotFile, Path rootDirectory) throws IOException {
+        SidebarSnapshot empty = new SidebarSnapshot(rootDirectory, 0, Map.of());
+        if (!Files.exists(snapshotFile)) {
+            return empty;
+        }
+        Map<String, Listing> previousListings = new ConcurrentHashMap<>();
+        long previousTakenNanos;
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                return empty;
+            }
+            String taken = reader.readLine();
+            if (taken == null) {
+                return empty;
+            }
+            previousTakenNanos = Long.parseLong(taken);
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(END)) {
+                // Directory, modification time, then one field per entry with 'd' or 'f' in front of its name
+                String[] fields = line.split("\t", -1);
+                if (fields.length < 2) {
+                    return empty;
+                }
+                String relativePath = ExportManifest.unescape(fields[0]);
+                Path directory = relativePath.isEmpty() ? rootDirectory : rootDirectory.resolve(relativePath);
+                List<DirectoryEntry> entries = new ArrayList<>(fields.length - 2);
+                for (int i = 2; i < fields.length; i++) {
+                    String name = ExportManifest.unescape(fields[i].substring(1));
+                    entries.add(new DirectoryEntry(directory.resolve(name), name, fields[i].charAt(0) == 'd'));
+                }
+                previousListings.put(relativePath, new Listing(Long.parseLong(fields[1]), entries));
+            }
+            if (line == null) {
+                // Cut off while it was written
+                return empty;
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return empty;
+        }
+        return new SidebarSnapshot(rootDirectory, previousTakenNanos, previousListings);
+    }
+
+    /**
+     * The entries of {@code directory}, from the last run if it did not change since, in file system order.
+     */
+    List<DirectoryEntry> list(Path directory) throws IOException {
+        String relativePath = rootDirectory.relativize(directory).toString();
+        // Read before listing, a change during the listing then shows up in the next run
+        long lastModified = Files.getLastModifiedTime(directory).to(TimeUnit.NANOSECONDS);
+        Listing previous = previousListings.get(relativePath);
+        if (previous != null && previous.lastModified() == lastModified
+                && lastModified < previousTakenNanos - RACY_NANOS) {
+            listings.put(relativePath, previous);
+            reusedDirectories.incrementAndGet();
+            return previous.entries();
+        }
+        List<DirectoryEntry> entries = WebsiteSidebarTextGenerator.listDirectory(directory);
+        listings.put(relativePath, new Listing(lastModified, entries));
+        listedDirectories.incrementAndGet();
+        return entries;
+    }
+
+    /**
+     * Whether this run saw other listings than the saved snapshot holds.
+     */
+    boolean isModified() {
+        return listedDirectories.get() > 0 || listings.size() != previousListings.size();
+    }
+
+    int listedDirectories() {
+        return listedDirectories.get();
+    }
+
+    int reusedDirectories() {
+        return reusedDirectories.get();
+    }
+
+    /**
+     * Saves the listings of this run, directories that were not listed or reused are dropped.
+     */
+    void save(Path snapshotFile) throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(snapshotFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(Long.toString(takenNanos));
+            writer.newLine();
+            StringBuilder line = new StringBuilder(256);
+            for (Map.Entry<String, Listing> listing : listings.entrySet()) {
+                line.setLength(0);
+                line.append(ExportManifest.escape(listing.getKey())).append('\t')
+                        .append(listing.getValue().lastModified());
+                for (DirectoryEntry entry : listing.getValue().entries()) {
+                    line.append('\t').append(entry.isDirectory() ? 'd' : 'f')
+                            .append(ExportManifest.escape(entry.name()));
+                }
+                writer.append(line);
+                writer.newLine();
+            }
+            writer.write(END);
+            writer.newLine();
+        }
+    }
+}
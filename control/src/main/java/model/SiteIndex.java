@@ -0,0 +1,529 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Tags, backlinks and search terms of the exported notes, written as JSON into {@value #DIRECTORY_NAME} of the
+ * export for the Quarto site: {@value #TAGS_FILE_NAME} lists the notes of every tag, {@value #BACKLINKS_FILE_NAME}
+ * the notes linking to every note, {@value #TERMS_FILE_NAME} the notes containing every term by their number in
+ * its {@code notes} list, and {@value #STATS_FILE_NAME} counts them up. No page links to these files, Quarto copies
+ * them into the site because the export lists {@value #RESOURCES} among the project resources.
+ * <p>
+ * Nothing reads a note for this: the scan for the link index passes every line to a {@link Partial} as well. Tags
+ * come from the front matter, terms from the body outside of code blocks, and a word or tag with a byte that is no
+ * UTF-8 is left out rather than indexed garbled. Every scanning thread fills a partial of its own and {@link #merge}
+ * combines them at the end. An incremental export only scans the notes that changed, the others come from
+ * {@value #CACHE_FILE_NAME}, the index of the last run.
+ */
+final class SiteIndex {
+
+    // Quarto skips paths starting with an underscore, even when they are listed as resources
+    static final String DIRECTORY_NAME = "site-index";
+    static final String RESOURCES = DIRECTORY_NAME + "/*.json";
+    static final String CACHE_FILE_NAME = ".export-site-index";
+    static final String TAGS_FILE_NAME = "tags.json";
+    static final String BACKLINKS_FILE_NAME = "backlinks.json";
+    static final String TERMS_FILE_NAME = "terms.json";
+    static final String STATS_FILE_NAME = "stats.json";
+    private static final String CACHE_HEADER = "# export-site-index v1";
+    // What the scan reads for a byte that is no UTF-8
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+    // Shorter words find too much, longer ones are hashes, URLs and the like
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 40;
+
+    /**
+     * Growable list of note numbers.
+     */
+    private static final class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+
+        int last() {
+            return size == 0 ? -1 : ids[size - 1];
+        }
+
+        int[] sorted() {
+            int[] sorted = Arrays.copyOf(ids, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+
+    /**
+     * The index of some of the notes, numbered in the order they were added. A note is only added once its last
+     * line was seen, which of them are exported is decided by the export and passed to {@link #merge}. Must only be
+     * used by one thread at a time.
+     */
+    static final class Partial {
+
+        private final List<String> notes = new ArrayList<>();
+        private final List<Integer> wordCounts = new ArrayList<>();
+        private final Map<String, Postings> notesByTag = new HashMap<>();
+        private final Map<String, Postings> notesByTerm = new HashMap<>();
+        private final Set<String> noteSet = new HashSet<>();
+
+        private String note;
+        private final Set<String> noteTags = new LinkedHashSet<>();
+        private final Set<String> noteTerms = new HashSet<>();
+        private int noteWords;
+        private boolean inTagList;
+
+        void beginNote(String relativePath) {
+            note = relativePath;
+            noteTags.clear();
+            noteTerms.clear();
+            noteWords = 0;
+            inTagList = false;
+        }
+
+        /**
+         * A line of the YAML front matter or of the {@code <!--TAGS-->} block, which may list Obsidian tags like
+         * {@code #basics}.
+         */
+        void frontMatterLine(String line) {
+            if (inTagList && line.stripLeading().startsWith("- ")) {
+                addTag(line.stripLeading().substring(2));
+                return;
+            }
+            inTagList = false;
+            if (line.startsWith("tags:") || line.startsWith("tag:")) {
+                String value = line.substring(line.indexOf(':') + 1).trim();
+                if (value.isEmpty()) {
+                    // Block list on the following lines
+                    inTagList = true;
+                } else {
+                    if (value.startsWith("[") && value.endsWith("]")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    for (String tag : value.split("[,\\s]+")) {
+                        addTag(tag);
+                    }
+                }
+                return;
+            }
+            for (String word : line.trim().split("\\s+")) {
+                if (word.startsWith("#")) {
+                    addTag(word);
+                }
+            }
+        }
+
+        /**
+         * A line of the body, without the lines of code blocks.
+         */
+        void bodyLine(String line) {
+            // Lowercased first, the positions of a line and its lowercase form may differ
+            String lowerCase = line.toLowerCase(Locale.ROOT);
+            int length = lowerCase.length();
+            int start = -1;
+            boolean damaged = false;
+            for (int i = 0; i <= length; i++) {
+                char c = i < length ? lowerCase.charAt(i) : ' ';
+                if (Character.isLetterOrDigit(c) || c == REPLACEMENT_CHARACTER) {
+                    if (start < 0) {
+                        start = i;
+                    }
+                    damaged |= c == REPLACEMENT_CHARACTER;
+                } else if (start >= 0) {
+                    noteWords++;
+                    // A word of a badly encoded note is counted but not indexed, no one searches for it that way
+                    if (!damaged && i - start >= MIN_TERM_LENGTH && i - start <= MAX_TERM_LENGTH) {
+                        noteTerms.add(lowerCase.substring(start, i));
+                    }
+                    start = -1;
+                    damaged = false;
+                }
+            }
+        }
+
+        void endNote() {
+            if (note == null) {
+                note = null;
+                return;
+            }
+            int id = add(note, noteWords);
+            for (String tag : noteTags) {
+                notesByTag.computeIfAbsent(tag, key -> new Postings()).add(id);
+            }
+            for (String term : noteTerms) {
+                notesByTerm.computeIfAbsent(term, key -> new Postings()).add(id);
+            }
+            note = null;
+        }
+
+        /**
+         * Whether the note at this path is part of the partial. Several threads may ask at once while it is not
+         * changed.
+         */
+        boolean contains(String relativePath) {
+            return noteSet.contains(relativePath);
+        }
+
+        private int add(String relativePath, int words) {
+            notes.add(relativePath);
+            wordCounts.add(words);
+            noteSet.add(relativePath);
+            return notes.size() - 1;
+        }
+
+        private void addTag(String value) {
+            String tag = value.trim();
+            if (tag.length() >= 2 && (tag.startsWith("\"") && tag.endsWith("\"")
+                    || tag.startsWith("'") && tag.endsWith("'"))) {
+                tag = tag.substring(1, tag.length() - 1).trim();
+            }
+            if (tag.startsWith("#")) {
+                tag = tag.substring(1);
+            }
+            if (!tag.isEmpty() && tag.indexOf(REPLACEMENT_CHARACTER) < 0) {
+                noteTags.add(tag);
+            }
+        }
+    }
+
+    private final List<String> notes;
+    private final int[] wordCounts;
+    private final Map<String, int[]> notesByTag;
+    private final Map<String, int[]> notesByTerm;
+
+    private SiteIndex(List<String> notes, int[] wordCounts, Map<String, int[]> notesByTag,
+                      Map<String, int[]> notesByTerm) {
+        this.notes = notes;
+        this.wordCounts = wordCounts;
+        this.notesByTag = notesByTag;
+        this.notesByTerm = notesByTerm;
+    }
+
+    /**
+     * The index of the last run saved in {@code cacheFile} as a partial, or null if there is none or it cannot be
+     * read.
+     */
+    static Partial load(Path cacheFile) throws IOException {
+        if (!Files.exists(cacheFile)) {
+            return null;
+        }
+        Partial partial = new Partial();
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            if (!CACHE_HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // 'n' with path and word count of a note, 'g' with a tag and 't' with a term and their notes
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals("n")) {
+                    partial.add(ExportManifest.unescape(fields[1]), Integer.parseInt(fields[2]));
+                    continue;
+                }
+                Map<String, Postings> postingsByKey = fields[0].equals("g") ? partial.notesByTag : partial.notesByTerm;
+                Postings postings = new Postings();
+                for (int i = 2; i < fields.length; i++) {
+                    int id = Integer.parseInt(fields[i]);
+                    if (id < 0 || id >= partial.notes.size()) {
+                        return null;
+                    }
+                    postings.add(id);
+                }
+                postingsByKey.put(ExportManifest.unescape(fields[1]), postings);
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+        return partial;
+    }
+
+    /**
+     * Combines the partials of the scanned notes and, for the notes that were not scanned, the {@code previous}
+     * index, which may be null. {@code exportedNotes} are the notes of the export in chapter order, which is the
+     * order of the merged index. Notes that are not among them are left out, as are the ones no partial has.
+     */
+    static SiteIndex merge(List<String> exportedNotes, Collection<Partial> partials, Partial previous) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < exportedNotes.size(); i++) {
+            positions.put(exportedNotes.get(i), i);
+        }
+        Partial[] sources = new Partial[exportedNotes.size()];
+        int[] localIds = new int[exportedNotes.size()];
+        List<Partial> allPartials = new ArrayList<>(partials);
+        if (previous != null) {
+            // Last, a note scanned in this run replaces what the last run knew about it
+            allPartials.add(previous);
+        }
+        for (Partial partial : allPartials) {
+            for (int localId = 0; localId < partial.notes.size(); localId++) {
+                Integer position = positions.get(partial.notes.get(localId));
+                if (position != null && sources[position] == null) {
+                    sources[position] = partial;
+                    localIds[position] = localId;
+                }
+            }
+        }
+
+        Map<Partial, int[]> ids = new IdentityHashMap<>();
+        for (Partial partial : allPartials) {
+            int[] partialIds = new int[partial.notes.size()];
+            Arrays.fill(partialIds, -1);
+            ids.put(partial, partialIds);
+        }
+        List<String> notes = new ArrayList<>();
+        int[] wordCounts = new int[exportedNotes.size()];
+        for (int position = 0; position < sources.length; position++) {
+            if (sources[position] != null) {
+                ids.get(sources[position])[localIds[position]] = notes.size();
+                wordCounts[notes.size()] = sources[position].wordCounts.get(localIds[position]);
+                notes.add(exportedNotes.get(position));
+            }
+        }
+
+        Map<String, Postings> notesByTag = new TreeMap<>();
+        Map<String, Postings> notesByTerm = new TreeMap<>();
+        for (Partial partial : allPartials) {
+            int[] partialIds = ids.get(partial);
+            mergePostings(partial.notesByTag, partialIds, notesByTag);
+            mergePostings(partial.notesByTerm, partialIds, notesByTerm);
+        }
+        return new SiteIndex(notes, Arrays.copyOf(wordCounts, notes.size()), sortedPostings(notesByTag),
+                sortedPostings(notesByTerm));
+    }
+
+    private static void mergePostings(Map<String, Postings> partialPostings, int[] partialIds,
+                                      Map<String, Postings> merged) {
+        for (Map.Entry<String, Postings> entry : partialPostings.entrySet()) {
+            Postings postings = entry.getValue();
+            Postings mergedPostings = null;
+            for (int i = 0; i < postings.size; i++) {
+                int id = partialIds[postings.ids[i]];
+                if (id >= 0) {
+                    if (mergedPostings == null) {
+                        mergedPostings = merged.computeIfAbsent(entry.getKey(), key -> new Postings());
+                    }
+                    mergedPostings.add(id);
+                }
+            }
+        }
+    }
+
+    private static Map<String, int[]> sortedPostings(Map<String, Postings> postingsByKey) {
+        Map<String, int[]> sorted = new TreeMap<>();
+        for (Map.Entry<String, Postings> entry : postingsByKey.entrySet()) {
+            sorted.put(entry.getKey(), entry.getValue().sorted());
+        }
+        return sorted;
+    }
+
+    int noteCount() {
+        return notes.size();
+    }
+
+    int tagCount() {
+        return notesByTag.size();
+    }
+
+    int termCount() {
+        return notesByTerm.size();
+    }
+
+    /**
+     * Saves the index for the next incremental run to start from.
+     */
+    void save(Path cacheFile) throws IOException {
+        Path tempFile = cacheFile.resolveSibling(CACHE_FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(CACHE_HEADER);
+            writer.newLine();
+            for (int id = 0; id < notes.size(); id++) {
+                writer.write("n\t" + ExportManifest.escape(notes.get(id)) + '\t' + wordCounts[id]);
+                writer.newLine();
+            }
+            writePostings(writer, "g", notesByTag);
+            writePostings(writer, "t", notesByTerm);
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writePostings(BufferedWriter writer, String kind, Map<String, int[]> postingsByKey)
+            throws IOException {
+        StringBuilder line = new StringBuilder(256);
+        for (Map.Entry<String, int[]> entry : postingsByKey.entrySet()) {
+            line.setLength(0);
+            line.append(kind).append('\t').append(ExportManifest.escape(entry.getKey()));
+            for (int id : entry.getValue()) {
+                line.append('\t').append(id);
+            }
+            writer.append(line);
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Writes the JSON files into {@value #DIRECTORY_NAME} of {@code exportRoot}. The backlinks follow from the
+     * wikilinks of every note in {@code linksByNote}, resolved with {@code linkIndex}. Returns the number of links
+     * between two different notes of the index.
+     */
+    int writeJson(Path exportRoot, Map<String, ? extends Collection<String>> linksByNote, VaultLinkIndex linkIndex)
+            throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int id = 0; id < notes.size(); id++) {
+            ids.put(notes.get(id), id);
+        }
+        Postings[] backlinks = new Postings[notes.size()];
+        int links = 0;
+        for (int source = 0; source < notes.size(); source++) {
+            Collection<String> noteLinks = linksByNote.get(notes.get(source));
+            if (noteLinks == null) {
+                continue;
+            }
+            for (String link : noteLinks) {
+                Integer target = ids.get(linkIndex.resolvePath(link));
+                if (target == null || target == source) {
+                    continue;
+                }
+                if (backlinks[target] == null) {
+                    backlinks[target] = new Postings();
+                }
+                // Sources come in order, two links of a note to the same target are counted once
+                if (backlinks[target].last() != source) {
+                    backlinks[target].add(source);
+                    links++;
+                }
+            }
+        }
+
+        Path directory = exportRoot.resolve(DIRECTORY_NAME);
+        Files.createDirectories(directory);
+        writeFile(directory.resolve(TAGS_FILE_NAME), writer -> {
+            writer.write('{');
+            String separator = "\n  ";
+            for (Map.Entry<String, int[]> tag : notesByTag.entrySet()) {
+                writer.write(separator);
+                writer.write(jsonString(tag.getKey()));
+                writer.write(": ");
+                writer.write(notePaths(tag.getValue()));
+                separator = ",\n  ";
+            }
+            writer.write("\n}\n");
+        });
+        writeFile(directory.resolve(BACKLINKS_FILE_NAME), writer -> {
+            writer.write('{');
+            String separator = "\n  ";
+            for (int target = 0; target < notes.size(); target++) {
+                if (backlinks[target] != null) {
+                    writer.write(separator);
+                    writer.write(jsonString(notes.get(target)));
+                    writer.write(": ");
+                    writer.write(notePaths(backlinks[target].sorted()));
+                    separator = ",\n  ";
+                }
+            }
+            writer.write("\n}\n");
+        });
+        writeFile(directory.resolve(TERMS_FILE_NAME), writer -> {
+            writer.write("{\n\"notes\": [");
+            for (int id = 0; id < notes.size(); id++) {
+                writer.write(id > 0 ? ",\n  " : "\n  ");
+                writer.write(jsonString(notes.get(id)));
+            }
+            writer.write("\n],\n\"terms\": {");
+            String separator = "\n  ";
+            StringBuilder line = new StringBuilder(256);
+            for (Map.Entry<String, int[]> term : notesByTerm.entrySet()) {
+                line.setLength(0);
+                line.append(separator).append(jsonString(term.getKey())).append(": [");
+                int[] termIds = term.getValue();
+                for (int i = 0; i < termIds.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    line.append(termIds[i]);
+                }
+                writer.append(line.append(']'));
+                separator = ",\n  ";
+            }
+            writer.write("\n}\n}\n");
+        });
+
+        long words = 0;
+        for (int wordCount : wordCounts) {
+            words += wordCount;
+        }
+        int taggedNotes = 0;
+        boolean[] tagged = new boolean[notes.size()];
+        for (int[] tagIds : notesByTag.values()) {
+            for (int id : tagIds) {
+                if (!tagged[id]) {
+                    tagged[id] = true;
+                    taggedNotes++;
+                }
+            }
+        }
+        int orphans = 0;
+        for (Postings noteBacklinks : backlinks) {
+            if (noteBacklinks == null) {
+                orphans++;
+            }
+        }
+        String stats = "{\n  \"notes\": " + notes.size() + ",\n  \"words\": " + words
+                + ",\n  \"tags\": " + notesByTag.size() + ",\n  \"taggedNotes\": " + taggedNotes
+                + ",\n  \"terms\": " + notesByTerm.size() + ",\n  \"links\": " + links
+                + ",\n  \"notesWithoutBacklinks\": " + orphans + "\n}\n";
+        writeFile(directory.resolve(STATS_FILE_NAME), writer -> writer.write(stats));
+        return links;
+    }
+
+    private interface JsonContent {
+        void write(Writer writer) throws IOException;
+    }
+
+    private static void writeFile(Path file, JsonContent content) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            content.write(writer);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private String notePaths(int[] ids) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            ExportMetrics.appendJsonString(json, notes.get(ids[i]));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2);
+        ExportMetrics.appendJsonString(json, text);
+        return json.toString();
+    }
+}
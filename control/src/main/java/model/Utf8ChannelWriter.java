@@ -0,0 +1,149 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writer that encodes UTF-8 straight into a reusable byte buffer and can also take bytes that already are UTF-8,
+ * like unchanged lines of the source, without decoding and encoding them again. Both kinds of output end up in
+ * the channel in the order they were written.
+ * <p>
+ * Unpaired surrogates are written as {@code '?'}, like {@link java.io.OutputStreamWriter} does. The channel is
+ * not closed by {@link #close()}.
+ */
+class Utf8ChannelWriter extends Writer {
+
+    private final byte[] buffer;
+    private final ByteBuffer bufferView;
+    private WritableByteChannel channel;
+    private int position;
+    private char pendingHighSurrogate;
+
+    Utf8ChannelWriter(int bufferSize) {
+        buffer = new byte[bufferSize];
+        bufferView = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Starts writing to another channel. Anything not flushed to the previous one is dropped.
+     */
+    void reset(WritableByteChannel channel) {
+        this.channel = channel;
+        position = 0;
+        pendingHighSurrogate = 0;
+    }
+
+    /**
+     * Writes the bytes between {@code start} and {@code end} of {@code source} unchanged.
+     */
+    void writeRaw(ByteBuffer source, int start, int end) throws IOException {
+        flushPendingSurrogate();
+        int length = end - start;
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                ByteBuffer slice = source.slice(start, length);
+                while (slice.hasRemaining()) {
+                    channel.write(slice);
+                }
+                return;
+            }
+        }
+        source.get(start, buffer, position, length);
+        position += length;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            writeChar(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String text, int offset, int length) throws IOException {
+        for (int i = offset; i < offset + length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 && pendingHighSurrogate == 0) {
+                if (position == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[position++] = (byte) c;
+            } else {
+                writeChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushPendingSurrogate();
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private void writeChar(char c) throws IOException {
+        if (buffer.length - position < 4) {
+            flushBuffer();
+        }
+        if (pendingHighSurrogate != 0) {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int codePoint = Character.toCodePoint(high, c);
+                buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+                return;
+            }
+            buffer[position++] = '?';
+            if (buffer.length - position < 4) {
+                flushBuffer();
+            }
+        }
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | c >> 6);
+            buffer[position++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | c >> 12);
+            buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+            buffer[position++] = (byte) (0x80 | c & 0x3F);
+        }
+    }
+
+    private void flushPendingSurrogate() throws IOException {
+        if (pendingHighSurrogate != 0) {
+            pendingHighSurrogate = 0;
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = '?';
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        bufferView.clear().limit(position);
+        while (bufferView.hasRemaining()) {
+            channel.write(bufferView);
+        }
+        position = 0;
+    }
+}
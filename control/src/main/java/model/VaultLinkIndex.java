@@ -0,0 +1,575 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the wikilinks of a vault to the Markdown link targets of the export.
+ * <p>
+ * Every exported file is known by its name without extension and by its path relative to the vault root without
+ * extension, notes additionally by the aliases of their front matter. {@code [[Note#Heading]]} points to the
+ * anchor Pandoc generates for that heading, {@code [[Note#^block]]} and {@code [[Note^block]]} to the anchor the
+ * export writes for a block id, and {@code [[Note|text]]} shows the text after the bar. All lookups are hash map
+ * lookups. A block id only gets its anchor if a wikilink of the vault points to it, see {@link #isLinkedBlock}.
+ * <p>
+ * Files are added in chapter order. If several files share a name, the last one wins and the name is reported
+ * by {@link #ambiguousNames()}, its other files can still be linked by path. Aliases never shadow a file name.
+ * <p>
+ * The index is saved next to the export manifest, so an incremental run only rescans the notes that changed.
+ */
+public class VaultLinkIndex {
+
+    static final String FILE_NAME = ".export-link-index";
+    private static final String HEADER = "# export-link-index v2";
+    private static final String BLOCK_ANCHOR_PREFIX = "block-";
+
+    /**
+     * What the index knows about one exported file.
+     *
+     * @param headings   the heading texts in the order of the note, their anchors follow from this order
+     * @param blockLinks the wikilinks of the note that point to a block id, in any note
+     */
+    public record Note(String relativePath, List<String> aliases, List<String> headings, List<String> blockIds,
+                       List<String> blockLinks) {
+
+        public Note {
+            aliases = List.copyOf(aliases);
+            headings = List.copyOf(headings);
+            blockIds = List.copyOf(blockIds);
+            blockLinks = List.copyOf(blockLinks);
+        }
+
+        static Note withoutContent(String relativePath) {
+            return new Note(relativePath, List.of(), List.of(), List.of(), List.of());
+        }
+    }
+
+    private record Target(Note note, String link, Map<String, String> headingAnchors, Set<String> blockIds) {
+    }
+
+    private final Map<String, Target> targets = new LinkedHashMap<>();
+    private final Map<String, Target> targetsByName = new HashMap<>();
+    private final Map<String, Target> targetsByPath = new HashMap<>();
+    private final Map<String, Target> targetsByAlias = new HashMap<>();
+    private final Set<String> ambiguousNames = new HashSet<>();
+    private final Map<String, Set<String>> linkedBlockIds = new HashMap<>();
+
+    /**
+     * @param notes all exported files in chapter order
+     */
+    public VaultLinkIndex(Collection<Note> notes) {
+        for (Note note : notes) {
+            add(note);
+        }
+        for (Target target : targets.values()) {
+            for (String alias : target.note().aliases()) {
+                if (!targetsByName.containsKey(alias)) {
+                    targetsByAlias.put(alias, target);
+                }
+            }
+        }
+        // Only complete now, links may go to any note and through aliases
+        for (Target target : targets.values()) {
+            for (String linkText : target.note().blockLinks()) {
+                addLinkedBlock(target, linkText);
+            }
+        }
+    }
+
+    /**
+     * Index of files whose contents are unknown, so only names and paths resolve.
+     */
+    public static VaultLinkIndex ofPaths(Collection<String> relativePaths) {
+        List<Note> notes = new ArrayList<>(relativePaths.size());
+        for (String relativePath : relativePaths) {
+            notes.add(Note.withoutContent(relativePath));
+        }
+        return new VaultLinkIndex(notes);
+    }
+
+    /**
+     * Reads the aliases, headings, block ids and links to block ids of one file. Files other than notes are only indexed by name.
+     */
+    public static Note scan(Path file, String relativePath) throws IOException {
+        return scan(file, relativePath, null);
+    }
+
+    /**
+     * Like {@link #scan(Path, String)}, and passes the lines of a note to {@code siteIndex} unless it is null.
+     */
+    static Note scan(Path file, String relativePath, SiteIndex.Partial siteIndex) throws IOException {
+        String fileName = file.getFileName().toString();
+        if (!fileName.endsWith(".md") && !fileName.endsWith(".qmd")) {
+            return Note.withoutContent(relativePath);
+        }
+        List<String> aliases = new ArrayList<>();
+        List<String> headings = new ArrayList<>();
+        List<String> blockIds = new ArrayList<>();
+        List<String> blockLinks = new ArrayList<>();
+        if (siteIndex != null) {
+            siteIndex.beginNote(relativePath);
+        }
+        // Not Files.newBufferedReader, which throws on the first byte that is no UTF-8. A badly encoded note is
+        // exported all the same, so its bytes are read as U+FFFD here instead of stopping the export
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line = reader.readLine();
+            // Front matter is either a YAML block at the start or the tag block of the vault templates
+            if ("---".equals(line) || "<!--TAGS-->".equals(line)) {
+                String end = "---".equals(line) ? "---" : "<!--/TAGS-->";
+                boolean inAliases = false;
+                while ((line = reader.readLine()) != null && !line.equals(end)) {
+                    inAliases = readAliases(line, inAliases, aliases);
+                    if (siteIndex != null) {
+                        siteIndex.frontMatterLine(line);
+                    }
+                }
+                line = reader.readLine();
+            }
+            boolean inCode = false;
+            for (; line != null; line = reader.readLine()) {
+                if (line.startsWith("```") || line.startsWith("~~~")) {
+                    inCode = !inCode;
+                    continue;
+                }
+                if (inCode) {
+                    continue;
+                }
+                if (siteIndex != null) {
+                    siteIndex.bodyLine(line);
+                }
+                String heading = headingText(line);
+                if (heading != null) {
+                    headings.add(heading);
+                }
+                String blockId = blockId(line);
+                if (blockId != null) {
+                    blockIds.add(blockId);
+                }
+                addBlockLinks(line, blockLinks);
+            }
+        }
+        if (siteIndex != null) {
+            siteIndex.endNote();
+        }
+        return new Note(relativePath, aliases, headings, blockIds, blockLinks);
+    }
+
+    /**
+     * Loads a saved index, or returns null if there is none or it cannot be read.
+     */
+    public static VaultLinkIndex load(Path indexFile) throws IOException {
+        if (!Files.exists(indexFile)) {
+            return null;
+        }
+        List<Note> notes = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                int position = 1;
+                List<String> aliases = new ArrayList<>();
+                List<String> headings = new ArrayList<>();
+                List<String> blockIds = new ArrayList<>();
+                List<String> blockLinks = new ArrayList<>();
+                position = readList(fields, position, aliases);
+                position = readList(fields, position, headings);
+                position = readList(fields, position, blockIds);
+                readList(fields, position, blockLinks);
+                notes.add(new Note(ExportManifest.unescape(fields[0]), aliases, headings, blockIds, blockLinks));
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            // Damaged index, it is rebuilt from the vault
+            return null;
+        }
+        return new VaultLinkIndex(notes);
+    }
+
+    public void save(Path indexFile) throws IOException {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Target target : targets.values()) {
+                Note note = target.note();
+                writer.write(ExportManifest.escape(note.relativePath()));
+                writeList(writer, note.aliases());
+                writeList(writer, note.headings());
+                writeList(writer, note.blockIds());
+                writeList(writer, note.blockLinks());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The indexed file at this path relative to the vault root, or null.
+     */
+    public Note note(String relativePath) {
+        Target target = targets.get(relativePath);
+        return target == null ? null : target.note();
+    }
+
+    /**
+     * Whether a wikilink of the vault points to the block id {@code blockId} of the note at {@code relativePath}.
+     * Only such block ids get an anchor, any other {@code " ^word"} at the end of a line is left as it is.
+     */
+    public boolean isLinkedBlock(String relativePath, String blockId) {
+        Set<String> blockIds = linkedBlockIds.get(relativePath);
+        return blockIds != null && blockIds.contains(blockId);
+    }
+
+    /**
+     * The block ids of the note at {@code relativePath} that a wikilink points to.
+     */
+    Set<String> linkedBlockIds(String relativePath) {
+        return linkedBlockIds.getOrDefault(relativePath, Set.of());
+    }
+
+    /**
+     * Names shared by several files. Links with such a name go to the last of them in chapter order.
+     */
+    public Set<String> ambiguousNames() {
+        return Set.copyOf(ambiguousNames);
+    }
+
+    /**
+     * Markdown link target of a wikilink, such as {@code </2 Basics/Note.md#heading>}, or null if it does not
+     * resolve. The text after a {@code |} only changes the shown text and is ignored here.
+     */
+    public String resolve(String linkText) {
+        String target = targetText(linkText);
+        Target file = findTarget(target);
+        if (file != null) {
+            return file.link();
+        }
+        int hash = target.indexOf('#');
+        int caret = target.indexOf('^');
+        int split = hash >= 0 ? hash : caret;
+        if (split < 0) {
+            return null;
+        }
+        String notePart = target.substring(0, split);
+        String fragment = target.substring(hash >= 0 ? hash + 1 : caret);
+        if (notePart.isEmpty()) {
+            // Link into the same note
+            return "<#" + (fragment.startsWith("^") ? blockAnchor(fragment.substring(1)) : anchor(fragment)) + ">";
+        }
+        file = findTarget(notePart);
+        if (file == null) {
+            return null;
+        }
+        String anchor = fragmentAnchor(file, fragment);
+        if (anchor == null) {
+            return file.link();
+        }
+        String link = file.link();
+        return link.substring(0, link.length() - 1) + "#" + anchor + ">";
+    }
+
+    /**
+     * Path relative to the vault root of the file a wikilink points to, or null if it does not resolve or points
+     * into the same note.
+     */
+    public String resolvePath(String linkText) {
+        String target = targetText(linkText);
+        Target file = findTarget(target);
+        if (file == null) {
+            int hash = target.indexOf('#');
+            int caret = target.indexOf('^');
+            int split = hash >= 0 ? hash : caret;
+            if (split > 0) {
+                file = findTarget(target.substring(0, split));
+            }
+        }
+        return file == null ? null : file.note().relativePath();
+    }
+
+    /**
+     * The shown text of a wikilink: the text after the {@code |} or the whole link text.
+     */
+    public static String displayText(String linkText) {
+        int bar = aliasSeparator(linkText);
+        return bar < 0 ? linkText : linkText.substring(bar + 1);
+    }
+
+    /**
+     * The link text without the shown text after the {@code |}.
+     */
+    public static String targetText(String linkText) {
+        int bar = aliasSeparator(linkText);
+        if (bar < 0) {
+            return linkText;
+        }
+        // Inside tables the bar is escaped as \|
+        int end = bar > 0 && linkText.charAt(bar - 1) == '\\' ? bar - 1 : bar;
+        return linkText.substring(0, end);
+    }
+
+    /**
+     * Anchor the export writes for a block id.
+     */
+    public static String blockAnchor(String blockId) {
+        return BLOCK_ANCHOR_PREFIX + blockId;
+    }
+
+    /**
+     * The block id at the end of a line, as in {@code "Some text ^my-block"}, or null.
+     */
+    static String blockId(String line) {
+        int caret = line.lastIndexOf('^');
+        if (caret < 1 || caret == line.length() - 1 || !Character.isWhitespace(line.charAt(caret - 1))) {
+            return null;
+        }
+        int end = line.length();
+        while (end > caret + 1 && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        for (int i = caret + 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-')) {
+                return null;
+            }
+        }
+        return end > caret + 1 ? line.substring(caret + 1, end) : null;
+    }
+
+    /**
+     * Identifier Pandoc derives from a heading text: without punctuation except {@code _-.}, spaces as hyphens,
+     * lowercase and without anything before the first letter.
+     */
+    static String anchor(String heading) {
+        StringBuilder anchor = new StringBuilder(heading.length());
+        boolean seenLetter = false;
+        for (int i = 0; i < heading.length(); i++) {
+            char c = heading.charAt(i);
+            if (!seenLetter && !Character.isLetter(c)) {
+                continue;
+            }
+            seenLetter = true;
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.') {
+                anchor.append(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c)) {
+                anchor.append('-');
+            }
+        }
+        return anchor.isEmpty() ? "section" : anchor.toString();
+    }
+
+    private void add(Note note) {
+        String relativePath = note.relativePath();
+        Map<String, String> headingAnchors = new HashMap<>();
+        // Pandoc numbers repeated identifiers, the first occurrence wins for a heading text
+        Map<String, Integer> anchorCounts = new HashMap<>();
+        for (String heading : note.headings()) {
+            String anchor = anchor(heading);
+            int count = anchorCounts.merge(anchor, 1, Integer::sum);
+            if (count > 1) {
+                anchor = anchor + "-" + (count - 1);
+            }
+            headingAnchors.putIfAbsent(heading.toLowerCase(Locale.ROOT), anchor);
+        }
+        Target target = new Target(note, "</" + relativePath + ">", headingAnchors, Set.copyOf(note.blockIds()));
+        targets.put(relativePath, target);
+        String name = linkName(relativePath);
+        if (targetsByName.put(name, target) != null) {
+            ambiguousNames.add(name);
+        }
+        targetsByPath.put(withoutExtension(relativePath), target);
+    }
+
+    private Target findTarget(String name) {
+        Target target = targetsByName.get(name);
+        if (target == null && name.indexOf('/') >= 0) {
+            target = targetsByPath.get(name.startsWith("/") ? name.substring(1) : name);
+        }
+        if (target == null) {
+            target = targetsByAlias.get(name);
+        }
+        return target;
+    }
+
+    /**
+     * Records the block id a link of {@code source} points to, resolved like {@link #resolve}.
+     */
+    private void addLinkedBlock(Target source, String linkText) {
+        String target = targetText(linkText);
+        if (findTarget(target) != null) {
+            return;
+        }
+        int hash = target.indexOf('#');
+        int caret = target.indexOf('^');
+        int split = hash >= 0 ? hash : caret;
+        String fragment = split < 0 ? "" : target.substring(hash >= 0 ? hash + 1 : caret);
+        if (!fragment.startsWith("^")) {
+            return;
+        }
+        String notePart = target.substring(0, split);
+        Target file = notePart.isEmpty() ? source : findTarget(notePart);
+        String blockId = fragment.substring(1);
+        if (file != null && file.blockIds().contains(blockId)) {
+            linkedBlockIds.computeIfAbsent(file.note().relativePath(), key -> new HashSet<>()).add(blockId);
+        }
+    }
+
+    private static String fragmentAnchor(Target file, String fragment) {
+        if (fragment.startsWith("^")) {
+            String blockId = fragment.substring(1);
+            return file.blockIds().contains(blockId) ? blockAnchor(blockId) : null;
+        }
+        // Links to nested headings name the whole path, Heading#Subheading, only the last one has the anchor
+        String heading = fragment.substring(fragment.lastIndexOf('#') + 1).trim();
+        return file.headingAnchors().get(heading.toLowerCase(Locale.ROOT));
+    }
+
+    private static int aliasSeparator(String linkText) {
+        return linkText.indexOf('|');
+    }
+
+    private static boolean readAliases(String line, boolean inAliases, List<String> aliases) {
+        if (inAliases && line.stripLeading().startsWith("- ")) {
+            addAlias(line.stripLeading().substring(2), aliases);
+            return true;
+        }
+        if (!line.startsWith("aliases:") && !line.startsWith("alias:")) {
+            return false;
+        }
+        String value = line.substring(line.indexOf(':') + 1).trim();
+        if (value.isEmpty()) {
+            // Block list on the following lines
+            return true;
+        }
+        if (value.startsWith("[") && value.endsWith("]")) {
+            for (String alias : value.substring(1, value.length() - 1).split(",")) {
+                addAlias(alias, aliases);
+            }
+        } else {
+            addAlias(value, aliases);
+        }
+        return false;
+    }
+
+    private static void addAlias(String value, List<String> aliases) {
+        String alias = value.trim();
+        if (alias.length() >= 2 && (alias.startsWith("\"") && alias.endsWith("\"")
+                || alias.startsWith("'") && alias.endsWith("'"))) {
+            alias = alias.substring(1, alias.length() - 1);
+        }
+        if (!alias.isEmpty()) {
+            aliases.add(alias);
+        }
+    }
+
+    /**
+     * Adds the wikilinks and embeds of {@code line} that point to a block id to {@code blockLinks}.
+     */
+    private static void addBlockLinks(String line, List<String> blockLinks) {
+        if (line.indexOf('^') < 0) {
+            return;
+        }
+        int start = line.indexOf("[[");
+        while (start >= 0) {
+            int end = line.indexOf("]]", start + 2);
+            if (end < 0) {
+                return;
+            }
+            String linkText = line.substring(start + 2, end);
+            if (targetText(linkText).indexOf('^') >= 0) {
+                blockLinks.add(linkText);
+            }
+            start = line.indexOf("[[", end + 2);
+        }
+    }
+
+    private static String headingText(String line) {
+        int level = 0;
+        while (level < line.length() && line.charAt(level) == '#') {
+            level++;
+        }
+        if (level == 0 || level > 6 || level == line.length() || line.charAt(level) != ' ') {
+            return null;
+        }
+        String text = line.substring(level + 1).trim();
+        // Closing hashes and block ids are not part of the heading
+        String blockId = blockId(text);
+        if (blockId != null) {
+            text = text.substring(0, text.length() - blockId.length() - 1).trim();
+        }
+        while (text.endsWith("#")) {
+            text = text.substring(0, text.length() - 1).trim();
+        }
+        return stripWikilinks(text);
+    }
+
+    /**
+     * Heading text as Pandoc sees it after the export, wikilinks are reduced to their shown text.
+     */
+    private static String stripWikilinks(String text) {
+        int start = text.indexOf("[[");
+        if (start < 0) {
+            return text;
+        }
+        StringBuilder plain = new StringBuilder(text.length());
+        int tail = 0;
+        while (start >= 0) {
+            int end = text.indexOf("]]", start + 2);
+            if (end < 0) {
+                break;
+            }
+            plain.append(text, tail, start).append(displayText(text.substring(start + 2, end)));
+            tail = end + 2;
+            start = text.indexOf("[[", tail);
+        }
+        return plain.append(text, tail, text.length()).toString();
+    }
+
+    private static String linkName(String relativePath) {
+        String fileName = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        int dot = fileName.lastIndexOf('.');
+        return dot < 0 ? fileName : fileName.substring(0, dot);
+    }
+
+    private static String withoutExtension(String relativePath) {
+        int dot = relativePath.lastIndexOf('.');
+        return dot > relativePath.lastIndexOf('/') ? relativePath.substring(0, dot) : relativePath;
+    }
+
+    private static void writeList(BufferedWriter writer, List<String> values) throws IOException {
+        writer.write('\t');
+        writer.write(Integer.toString(values.size()));
+        for (String value : values) {
+            writer.write('\t');
+            writer.write(ExportManifest.escape(value));
+        }
+    }
+
+    private static int readList(String[] fields, int position, List<String> values) {
+        int count = Integer.parseInt(fields[position++]);
+        for (int i = 0; i < count; i++) {
+            values.add(ExportManifest.unescape(fields[position++]));
+        }
+        return position;
+    }
+}
@@ -0,0 +1,241 @@
+package model;
+
+import model.MessageEvent.Type;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Keeps the export of a vault up to date while the notes are edited.
+ * <p>
+ * Every directory of the vault except the excluded ones is registered with a {@link WatchService}. Events are
+ * collected until the vault has been quiet for the debounce time, so a burst like Obsidian's write and
+ * rename on save triggers a single update. An update is an incremental export, which only re-transforms the
+ * changed notes and the notes linking to them. The sidebar is only regenerated when notes or directories were
+ * added or removed, and only reported when its text actually changed. It is also put into the vault's
+ * {@code _quarto.yml}, whose change the watcher then exports like any other.
+ * <p>
+ * A failed update, like a note deleted by a save while the export reads the vault, is reported and does not stop
+ * the watcher. The next event then registers the vault again and updates everything.
+ */
+public class VaultWatcher implements Closeable {
+
+    private static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+    private final Path vaultRoot;
+    private final MarkdownFileStructureGenerator generator;
+    private final MessageObserver observer;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+    private String lastSidebarText;
+    private boolean rescanPending;
+
+    private interface UpdateCycle {
+        void run() throws IOException;
+    }
+
+    public VaultWatcher(Path vaultRoot, MarkdownFileStructureGenerator generator, MessageObserver observer)
+            throws IOException {
+        this.vaultRoot = vaultRoot;
+        this.generator = generator;
+        this.observer = observer;
+        this.watchService = vaultRoot.getFileSystem().newWatchService();
+        generator.setIncremental(true);
+    }
+
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Exports the vault once and then keeps updating the export until the thread is interrupted or the
+     * watcher is closed.
+     */
+    public void run() throws IOException, InterruptedException {
+        registerTree(vaultRoot);
+        runCycle(() -> {
+            generator.generateFileStructure(vaultRoot.toString());
+            lastSidebarText = updateSidebar(null).sidebar();
+        });
+        int directoryCount = watchedDirectories.size();
+        observer.notify(MessageEvent.info(Type.MESSAGE, vaultRoot,
+                () -> "Watching " + directoryCount + " directories in <" + vaultRoot + ">"));
+
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+            ChangeSet changes = new ChangeSet();
+            WatchKey firstKey = key;
+            runCycle(() -> {
+                collectEvents(firstKey, changes);
+                // Wait until no further events arrive within the debounce time
+                WatchKey nextKey;
+                while ((nextKey = pollKey()) != null) {
+                    collectEvents(nextKey, changes);
+                }
+            });
+            if (rescanPending) {
+                changes.exportChanged = true;
+                changes.structureChanged = true;
+            }
+            if (changes.exportChanged) {
+                boolean rescan = rescanPending;
+                rescanPending = false;
+                runCycle(() -> {
+                    if (rescan) {
+                        registerTree(vaultRoot);
+                    }
+                    update(changes);
+                });
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Runs a step of the watch loop. An {@link IOException} is reported and makes the next update a full rescan
+     * instead of ending the watcher, only a cancelled export still ends it.
+     */
+    private void runCycle(UpdateCycle cycle) throws InterruptedIOException {
+        try {
+            cycle.run();
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            rescanPending = true;
+            observer.notify(MessageEvent.error(Type.MESSAGE, vaultRoot,
+                    () -> "Updating the export failed, rescanning the vault on the next change: " + e));
+        }
+    }
+
+    private WatchKey pollKey() throws InterruptedIOException {
+        try {
+            return watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while collecting changes");
+        }
+    }
+
+    private void update(ChangeSet changes) throws IOException {
+        long start = System.nanoTime();
+        generator.generateFileStructure(vaultRoot.toString());
+        if (changes.structureChanged) {
+            String sidebarText = updateSidebar(generator.getMetrics()).sidebar();
+            generator.writeReport();
+            if (!sidebarText.equals(lastSidebarText)) {
+                lastSidebarText = sidebarText;
+                observer.notify(MessageEvent.info(Type.SIDEBAR_CHANGED, vaultRoot,
+                        () -> "Sidebar changed:" + System.lineSeparator() + sidebarText));
+            }
+        }
+        long durationNanos = System.nanoTime() - start;
+        observer.notify(MessageEvent.info(Type.EXPORT_FINISHED, vaultRoot,
+                () -> "Updated export in " + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms")
+                .withDuration(durationNanos));
+    }
+
+    private WebsiteSidebarTextGenerator.SidebarUpdate updateSidebar(ExportMetrics metrics) throws IOException {
+        WebsiteSidebarTextGenerator.SidebarUpdate update =
+                WebsiteSidebarTextGenerator.updateSidebar(vaultRoot.toString(), metrics);
+        if (update.configuration() == WebsiteSidebarTextGenerator.ConfigurationUpdate.UPDATED) {
+            observer.notify(MessageEvent.info(Type.SIDEBAR_CHANGED, vaultRoot,
+                    () -> "Updated the sidebar in " + WebsiteSidebarTextGenerator.QUARTO_CONFIGURATION_FILE_NAME));
+        }
+        return update;
+    }
+
+    private void collectEvents(WatchKey key, ChangeSet changes) throws IOException {
+        Path directory = watchedDirectories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == OVERFLOW) {
+                // Events were lost, so everything might have changed
+                changes.exportChanged = true;
+                changes.structureChanged = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            String fileName = path.getFileName().toString();
+            if (kind == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (!isExcluded(fileName)) {
+                    registerTree(path);
+                    changes.exportChanged = true;
+                    changes.structureChanged = true;
+                }
+            } else if (isExportInput(fileName)) {
+                changes.exportChanged = true;
+                if (kind != ENTRY_MODIFY && (fileName.endsWith(".md") || fileName.endsWith(".qmd"))) {
+                    changes.structureChanged = true;
+                }
+            } else if (kind == ENTRY_DELETE && watchedDirectories.containsValue(path)) {
+                changes.exportChanged = true;
+                changes.structureChanged = true;
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && isExcluded(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    watchedDirectories.put(key, dir);
+                } catch (NoSuchFileException e) {
+                    // Removed since the walk listed it, its removal is an event of the parent
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw exc;
+            }
+        });
+    }
+
+    private static boolean isExcluded(String directoryName) {
+        return WebsiteSidebarTextGenerator.EXCLUDED_DIRECTORIES.contains(directoryName);
+    }
+
+    private static boolean isExportInput(String fileName) {
+        return fileName.endsWith(".md") || fileName.endsWith(".qmd") || fileName.endsWith(".png")
+                || fileName.endsWith(".jpg") || fileName.equals("_quarto.yml") || fileName.equals("references.bib");
+    }
+
+    private static class ChangeSet {
+        private boolean exportChanged;
+        private boolean structureChanged;
+    }
+}
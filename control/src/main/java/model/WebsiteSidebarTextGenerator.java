@@ -1,105 +1,391 @@
 package model;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+/**
+ * Generates the {@code sidebar.contents} YAML of a Quarto website from the directory tree of a vault.
+ * <p>
+ * Every directory is listed exactly once and its section {@code href} is taken from that same listing.
+ * {@link #write} walks the tree with an explicit stack and streams the YAML to an {@link Appendable}, so only
+ * the listings of the directories on the current path are held in memory. {@link #generate} scans the
+ * subtrees in parallel on a fork-join pool instead and joins their text in order.
+ * <p>
+ * {@link #update} is what a vault that is edited needs: it only lists the directories that changed since the last
+ * run, see {@link SidebarSnapshot}, and puts the sidebar into the {@code sidebar.contents} of the vault's
+ * {@value #QUARTO_CONFIGURATION_FILE_NAME}. The file is only written when its contents change, so the file watcher
+ * of a running {@code quarto preview} is not triggered for nothing.
+ * <p>
+ * A generator has no mutable state, one instance can be used for any number of roots at the same time.
+ */
 public class WebsiteSidebarTextGenerator {
+    public static final String QUARTO_CONFIGURATION_FILE_NAME = "_quarto.yml";
     private static final String OUTPUT_FORMAT = "- \"%s\"";
-    private static final List<String> EXCLUDED_DIRECTORIES = Arrays.asList(
-            ".obsidian", ".quarto", "_book", "public", "_site",
-            "TEMPLATES", "exportFiles", ".git", ".github"
-    );
+    static final List<String> EXCLUDED_DIRECTORIES = SidebarConfiguration.DEFAULT_EXCLUDED_DIRECTORIES;
+    private static final WebsiteSidebarTextGenerator DEFAULT = new WebsiteSidebarTextGenerator(SidebarConfiguration.DEFAULT);
 
-    private static String baseDirectory = "";
-    private static StringBuilder output = new StringBuilder();
+    record DirectoryEntry(Path path, String name, boolean isDirectory) {
+    }
+
+    public enum ConfigurationUpdate {
+        UPDATED, UNCHANGED, NO_CONFIGURATION, NO_SIDEBAR_SECTION
+    }
+
+    /**
+     * Outcome of {@link #update}: the sidebar, what happened to the configuration and how many directories were
+     * listed again or taken from the last run.
+     */
+    public record SidebarUpdate(String sidebar, ConfigurationUpdate configuration, int listedDirectories,
+                                int reusedDirectories) {
+    }
+
+    private record Listing(Path directory, List<DirectoryEntry> sortedEntries, int depth) {
+    }
+
+    private final SidebarConfiguration configuration;
+    private final ForkJoinPool pool;
+
+    public WebsiteSidebarTextGenerator(SidebarConfiguration configuration) {
+        this(configuration, ForkJoinPool.commonPool());
+    }
 
+    public WebsiteSidebarTextGenerator(SidebarConfiguration configuration, ForkJoinPool pool) {
+        this.configuration = configuration;
+        this.pool = pool;
+    }
+
+    public SidebarConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sidebar of one vault with the default configuration, or an error text if the path is not a directory.
+     */
     public static String generateSidebarText(String directoryPath) {
-        baseDirectory = directoryPath.replace("\"", "");
-        output.setLength(0); // Clear output
+        return generateSidebarText(directoryPath, null);
+    }
 
-        File rootDirectory = new File(baseDirectory);
-        List<String> markdownFiles = new ArrayList<>();
+    /**
+     * Like {@link #generateSidebarText(String)}, and records the run as the stage "sidebar" of {@code metrics}
+     * unless that is null.
+     */
+    public static String generateSidebarText(String directoryPath, ExportMetrics metrics) {
+        String baseDirectory = directoryPath.replace("\"", "");
+        Path rootDirectory = Paths.get(baseDirectory);
 
-        if (rootDirectory.exists() && rootDirectory.isDirectory()) {
-            findMarkdownFiles(rootDirectory, markdownFiles, 6);
-            Collections.sort(markdownFiles);
-            markdownFiles.forEach(System.out::println);
-        } else {
+        if (!Files.isDirectory(rootDirectory)) {
             return "The provided directory does not exist or is not a directory:"
                     + System.lineSeparator() + "<" + baseDirectory + ">";
         }
-        return output.toString();
+        try {
+            return metrics == null ? DEFAULT.generate(rootDirectory) : DEFAULT.generate(rootDirectory, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
-    private static void findMarkdownFiles(File directory, List<String> markdownFiles, int depth) {
-        String indentation = " ".repeat(depth);
+    /**
+     * {@link #update} of one vault with the default configuration.
+     *
+     * @throws NoSuchFileException if the path is not a directory
+     */
+    public static SidebarUpdate updateSidebar(String directoryPath, ExportMetrics metrics) throws IOException {
+        Path rootDirectory = Paths.get(directoryPath.replace("\"", ""));
+        if (!Files.isDirectory(rootDirectory)) {
+            throw new NoSuchFileException(rootDirectory.toString(), null, "the vault is not a directory");
+        }
+        return DEFAULT.update(rootDirectory, metrics);
+    }
 
-        List<File> sortedFiles = getSortedFiles(directory);
-        if (sortedFiles.isEmpty()) {
-            return;
+    /**
+     * Sidebar of one vault, with the subtrees scanned in parallel.
+     */
+    public String generate(Path rootDirectory) throws IOException {
+        return generate(rootDirectory, (SidebarSnapshot) null);
+    }
+
+    /**
+     * Sidebar of one vault, recorded as the stage "sidebar" of {@code metrics} with the number of entries as files.
+     */
+    public String generate(Path rootDirectory, ExportMetrics metrics) throws IOException {
+        ExportMetrics.StageTimer stage = metrics.startStage("sidebar");
+        String sidebar = generate(rootDirectory);
+        stage.finish(countEntries(sidebar), sidebar.length());
+        return sidebar;
+    }
+
+    /**
+     * Sidebar of one vault from the directory listings of the last run where possible, which is written into the
+     * {@code sidebar.contents} of the vault's {@value #QUARTO_CONFIGURATION_FILE_NAME} if it differs from what is
+     * there. Recorded as the stage "sidebar" of {@code metrics} unless that is null.
+     */
+    public SidebarUpdate update(Path rootDirectory, ExportMetrics metrics) throws IOException {
+        ExportMetrics.StageTimer stage = metrics == null ? null : metrics.startStage("sidebar");
+        Path snapshotFile = SidebarSnapshot.file(rootDirectory);
+        SidebarSnapshot snapshot = SidebarSnapshot.load(snapshotFile, rootDirectory);
+        String sidebar = generate(rootDirectory, snapshot);
+        ConfigurationUpdate configurationUpdate =
+                updateConfiguration(rootDirectory.resolve(QUARTO_CONFIGURATION_FILE_NAME), sidebar);
+        if (snapshot.isModified()) {
+            snapshot.save(snapshotFile);
+        }
+        if (stage != null) {
+            stage.finish(countEntries(sidebar), sidebar.length());
+        }
+        return new SidebarUpdate(sidebar, configurationUpdate, snapshot.listedDirectories(),
+                snapshot.reusedDirectories());
+    }
+
+    /**
+     * Sidebars of several vaults, generated at the same time. The result keeps the order of {@code rootDirectories}.
+     */
+    public Map<Path, String> generateAll(List<Path> rootDirectories) throws IOException {
+        Map<Path, ForkJoinTask<String>> tasks = new LinkedHashMap<>();
+        for (Path rootDirectory : rootDirectories) {
+            tasks.put(rootDirectory, pool.submit(new SubtreeTask(rootDirectory, rootDirectory,
+                    listDirectory(rootDirectory), configuration.indentation(), null)));
+        }
+        Map<Path, String> sidebars = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<Path, ForkJoinTask<String>> task : tasks.entrySet()) {
+                sidebars.put(task.getKey(), task.getValue().join());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        return sidebars;
+    }
+
+    private String generate(Path rootDirectory, SidebarSnapshot snapshot) throws IOException {
+        try {
+            return pool.invoke(new SubtreeTask(rootDirectory, rootDirectory, list(rootDirectory, snapshot),
+                    configuration.indentation(), snapshot));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ConfigurationUpdate updateConfiguration(Path configurationFile, String sidebar) throws IOException {
+        if (!Files.isRegularFile(configurationFile)) {
+            return ConfigurationUpdate.NO_CONFIGURATION;
+        }
+        String text = Files.readString(configurationFile, StandardCharsets.UTF_8);
+        String updatedText = QuartoSidebarSection.replaceContents(text, sidebar, configuration.indentation());
+        if (updatedText == null) {
+            return ConfigurationUpdate.NO_SIDEBAR_SECTION;
+        }
+        if (updatedText.equals(text)) {
+            return ConfigurationUpdate.UNCHANGED;
+        }
+        // Replaced in one step, Quarto must never read half of it
+        Path tempFile = configurationFile.resolveSibling(configurationFile.getFileName() + ".tmp");
+        Files.writeString(tempFile, updatedText, StandardCharsets.UTF_8);
+        Files.move(tempFile, configurationFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return ConfigurationUpdate.UPDATED;
+    }
 
-        for (File file : sortedFiles) {
-            if (file.isDirectory()) {
-                if (EXCLUDED_DIRECTORIES.contains(file.getName())) {
+    /**
+     * Streams the sidebar entries of all Markdown files below {@code rootDirectory} to {@code output}.
+     */
+    public void write(Path rootDirectory, Appendable output) throws IOException {
+        Deque<Listing> stack = new ArrayDeque<>();
+        Deque<Integer> positions = new ArrayDeque<>();
+        stack.push(new Listing(rootDirectory, sortEntries(listDirectory(rootDirectory)), configuration.indentation()));
+        positions.push(0);
+
+        while (!stack.isEmpty()) {
+            Listing listing = stack.peek();
+            int position = positions.pop();
+            if (position == listing.sortedEntries().size()) {
+                stack.pop();
+                continue;
+            }
+            positions.push(position + 1);
+
+            DirectoryEntry entry = listing.sortedEntries().get(position);
+            String indentation = " ".repeat(listing.depth());
+            if (entry.isDirectory()) {
+                if (configuration.excludedDirectories().contains(entry.name())) {
                     continue;
                 }
-                output.append(indentation).append("- section: \"")
-                        .append(file.getName()).append("\"").append(System.lineSeparator())
-                        .append(getHref(file, indentation))
-                        .append(indentation).append("  contents:")
-                        .append(System.lineSeparator());
-                findMarkdownFiles(file, markdownFiles, depth + 2);
-            } else if (isMarkdownFile(file)) {
-                String fileName = file.getName();
-                if (fileName.endsWith(".md") && fileName.startsWith(file.getParentFile().getName())) {
-                    continue;
+                List<DirectoryEntry> children = listDirectory(entry.path());
+                appendSection(output, rootDirectory, entry, children, indentation);
+                stack.push(new Listing(entry.path(), sortEntries(children), listing.depth() + 2));
+                positions.push(0);
+            } else {
+                appendFile(output, rootDirectory, listing.directory(), entry, indentation);
+            }
+        }
+    }
+
+    /**
+     * Text of one directory and everything below it. Subdirectories are forked as tasks of their own.
+     */
+    // ForkJoinTask is Serializable, but the tasks only live within one sidebar run and are never serialized
+    @SuppressWarnings("serial")
+    private class SubtreeTask extends RecursiveTask<String> {
+        private final Path rootDirectory;
+        private final Path directory;
+        private final List<DirectoryEntry> entries;
+        private final int depth;
+        private final SidebarSnapshot snapshot;
+
+        SubtreeTask(Path rootDirectory, Path directory, List<DirectoryEntry> entries, int depth,
+                    SidebarSnapshot snapshot) {
+            this.rootDirectory = rootDirectory;
+            this.directory = directory;
+            this.entries = entries;
+            this.depth = depth;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        protected String compute() {
+            try {
+                String indentation = " ".repeat(depth);
+                // Texts and subtree tasks in sidebar order, the tasks are joined once all of them are forked
+                List<Object> parts = new ArrayList<>();
+                for (DirectoryEntry entry : sortEntries(entries)) {
+                    StringBuilder text = new StringBuilder();
+                    if (entry.isDirectory()) {
+                        if (configuration.excludedDirectories().contains(entry.name())) {
+                            continue;
+                        }
+                        List<DirectoryEntry> children = list(entry.path(), snapshot);
+                        appendSection(text, rootDirectory, entry, children, indentation);
+                        parts.add(text);
+                        parts.add(new SubtreeTask(rootDirectory, entry.path(), children, depth + 2, snapshot).fork());
+                    } else {
+                        appendFile(text, rootDirectory, directory, entry, indentation);
+                        parts.add(text);
+                    }
                 }
-                if (fileName.endsWith(".qmd") && fileName.startsWith(file.getParentFile().getName())) {
-                    continue;
+                StringBuilder output = new StringBuilder();
+                for (Object part : parts) {
+                    if (part instanceof ForkJoinTask<?> subtree) {
+                        output.append(subtree.join());
+                    } else {
+                        output.append((CharSequence) part);
+                    }
                 }
+                return output.toString();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void appendSection(Appendable output, Path rootDirectory, DirectoryEntry directory,
+                               List<DirectoryEntry> children, String indentation) throws IOException {
+        output.append(indentation).append("- section: \"")
+                .append(directory.name()).append("\"").append(System.lineSeparator());
+        DirectoryEntry indexFile = findIndexFile(directory.name(), children);
+        if (indexFile != null) {
+            output.append(indentation).append("  href: ")
+                    .append(relativePath(rootDirectory, indexFile.path())).append(System.lineSeparator());
+        }
+        output.append(indentation).append("  contents:").append(System.lineSeparator());
+    }
 
-                output.append(indentation)
-                        .append(String.format(OUTPUT_FORMAT,
-                                file.getPath().substring(baseDirectory.length() + 1)
-                                        .replace("\\", "/")))
-                        .append(System.lineSeparator());
+    private void appendFile(Appendable output, Path rootDirectory, Path directory, DirectoryEntry file,
+                            String indentation) throws IOException {
+        if (!SidebarConfiguration.isMarkdownFile(file.name())
+                || configuration.indexFileDetection().test(directoryName(directory), file.name())) {
+            // Index files are already linked as the section href
+            return;
+        }
+        output.append(indentation)
+                .append(String.format(OUTPUT_FORMAT, relativePath(rootDirectory, file.path())))
+                .append(System.lineSeparator());
+    }
+
+    /**
+     * Lists a directory once, together with the attributes needed to tell files and directories apart.
+     * The entries are in the order the file system returns them.
+     */
+    static List<DirectoryEntry> listDirectory(Path directory) throws IOException {
+        List<DirectoryEntry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // Broken links and entries removed in the meantime are not part of the sidebar
+                    continue;
+                }
+                entries.add(new DirectoryEntry(path, path.getFileName().toString(), attributes.isDirectory()));
             }
         }
+        return entries;
     }
 
-    private static List<File> getSortedFiles(File directory) {
-        List<File> fileList = Arrays.asList(directory.listFiles());
-        fileList.sort((file1, file2) -> {
-            try {
-                int firstNum = Integer.parseInt(file1.getName().split("\\s+")[0]);
-                int secondNum = Integer.parseInt(file2.getName().split("\\s+")[0]);
-                return Integer.compare(firstNum, secondNum);
-            } catch (NumberFormatException e) {
-                return file1.getName().compareTo(file2.getName());
+    private static List<DirectoryEntry> list(Path directory, SidebarSnapshot snapshot) throws IOException {
+        return snapshot == null ? listDirectory(directory) : snapshot.list(directory);
+    }
+
+    List<DirectoryEntry> getSortedFiles(Path directory) throws IOException {
+        return sortEntries(listDirectory(directory));
+    }
+
+    private List<DirectoryEntry> sortEntries(List<DirectoryEntry> entries) {
+        List<DirectoryEntry> sortedEntries = new ArrayList<>(entries);
+        Comparator<String> sortPolicy = configuration.sortPolicy();
+        if (sortPolicy == ChapterKey.ORDER) {
+            ChapterKey.sort(sortedEntries, DirectoryEntry::name);
+        } else {
+            sortedEntries.sort((entry1, entry2) -> sortPolicy.compare(entry1.name(), entry2.name()));
+        }
+        return sortedEntries;
+    }
+
+    private DirectoryEntry findIndexFile(String directoryName, List<DirectoryEntry> entries) {
+        for (DirectoryEntry entry : entries) {
+            if (!entry.isDirectory() && configuration.indexFileDetection().test(directoryName, entry.name())) {
+                return entry;
             }
-        });
-        return fileList;
+        }
+        return null;
     }
 
-    private static String getHref(File directory, String indentation) {
-        for (File file : directory.listFiles()) {
-            String fileName = file.getName();
-            String dirName = directory.getName();
-            if (fileName.endsWith(".md") && fileName.startsWith(dirName)) {
-                return indentation + "  href: " + file.getPath().substring(baseDirectory.length() + 1)
-                        .replace("\\", "/") + System.lineSeparator();
+    private static int countEntries(String sidebar) {
+        int entries = 0;
+        int lineStart = 0;
+        while (lineStart < sidebar.length()) {
+            int lineEnd = sidebar.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = sidebar.length();
+            }
+            int i = lineStart;
+            while (i < lineEnd && sidebar.charAt(i) == ' ') {
+                i++;
             }
-            if (fileName.endsWith(".qmd") && fileName.startsWith(dirName)) {
-                return indentation + "  href: " + file.getPath().substring(baseDirectory.length() + 1)
-                        .replace("\\", "/") + System.lineSeparator();
+            if (sidebar.startsWith("- ", i)) {
+                entries++;
             }
+            lineStart = lineEnd + 1;
         }
-        return "";
+        return entries;
+    }
+
+    private static String directoryName(Path directory) {
+        Path fileName = directory.getFileName();
+        return fileName == null ? "" : fileName.toString();
     }
 
-    private static boolean isMarkdownFile(File file) {
-        String fileName = file.getName();
-        return fileName.endsWith(".md") || fileName.endsWith(".qmd");
+    private static String relativePath(Path rootDirectory, Path path) {
+        return rootDirectory.relativize(path).toString().replace("\\", "/");
     }
 }
@@ -0,0 +1,108 @@
+package model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An export cancelled after a few files leaves its journal, the next export keeps the files it committed and
+ * writes only the others.
+ */
+class ExportJournalTest {
+
+    private static final int FILES_BEFORE_CANCEL = 4;
+
+    @TempDir
+    Path directory;
+
+    private Path vault;
+    private Path export;
+    private List<String> committedNotes;
+
+    @BeforeEach
+    void exportPartially() throws IOException {
+        vault = TestVaults.copySampleVault(directory);
+        MarkdownFileStructureGenerator[] generator = new MarkdownFileStructureGenerator[1];
+        generator[0] = new MarkdownFileStructureGenerator(new MessageObserver() {
+            private int startedFiles;
+
+            @Override
+            public void notify(String updateText) {
+            }
+
+            @Override
+            public void notify(MessageEvent event) {
+                if ((event.type() == MessageEvent.Type.FILE_EDITED || event.type() == MessageEvent.Type.FILE_COPIED)
+                        && ++startedFiles == FILES_BEFORE_CANCEL) {
+                    generator[0].cancel();
+                }
+            }
+        });
+        // One file at a time, the files after the cancel are not started yet
+        generator[0].setParallelism(1);
+        assertThrows(InterruptedIOException.class, () -> generator[0].generateFileStructure(vault.toString()));
+
+        export = generator[0].getExportDirectory();
+        committedNotes = committedNotes(export.resolve(ExportJournal.FILE_NAME));
+        assertFalse(committedNotes.isEmpty());
+        assertNotEquals(List.of(), TestVaults.differences(TestVaults.resource("golden/expected"), export));
+    }
+
+    @Test
+    void resumedExportKeepsCommittedFiles() throws IOException {
+        // Same size, only an export that writes the note again undoes the change
+        Path keptOutput = export.resolve(committedNotes.get(0));
+        byte[] output = Files.readAllBytes(keptOutput);
+        output[0] = (byte) (output[0] == 'x' ? 'y' : 'x');
+        Files.write(keptOutput, output);
+
+        TestVaults.exporter().generateFileStructure(vault.toString());
+
+        assertEquals(List.of("changed " + committedNotes.get(0)),
+                TestVaults.differences(TestVaults.resource("golden/expected"), export));
+        assertFalse(Files.exists(export.resolve(ExportJournal.FILE_NAME)));
+        assertFalse(Files.exists(export.resolve(ExportJournal.INDEX_FILE_NAME)));
+    }
+
+    @Test
+    void resumedExportRedoesNotesChangedSinceTheirCommit() throws IOException {
+        String changedNote = committedNotes.get(0);
+        TestVaults.write(vault.resolve(changedNote), "# Changed\nLinks to [[Basics Note]]\n");
+        Files.setLastModifiedTime(vault.resolve(changedNote), FileTime.from(Instant.parse("2024-01-03T12:00:00Z")));
+
+        TestVaults.exporter().generateFileStructure(vault.toString());
+
+        assertTrue(Files.readString(export.resolve(changedNote)).contains("# Changed"));
+        assertEquals(List.of(), TestVaults.differences(TestVaults.exportInFull(vault, directory.resolve("full")),
+                export));
+    }
+
+    private static List<String> committedNotes(Path journalFile) throws IOException {
+        List<String> notes = new ArrayList<>();
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        // Header and configuration, then one committed file per line
+        for (String line : lines.subList(2, lines.size())) {
+            String[] fields = line.split("\t");
+            if (fields[0].endsWith(".md") && Long.parseLong(fields[3]) > 0) {
+                notes.add(fields[0]);
+            }
+        }
+        return notes;
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Exports the sample vault and compares the result with what the export wrote before notes were converted
+ * incrementally, in parallel and through rules.
+ */
+class GoldenExportTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fullExportMatchesTheBaseline() throws IOException {
+        Path vault = TestVaults.copySampleVault(directory);
+        MarkdownFileStructureGenerator generator = TestVaults.exporter();
+        generator.generateFileStructure(vault.toString());
+
+        assertEquals(List.of(), TestVaults.differences(TestVaults.resource("golden/expected"),
+                generator.getExportDirectory()));
+    }
+
+    @Test
+    void parallelExportMatchesTheBaseline() throws IOException {
+        Path vault = TestVaults.copySampleVault(directory);
+        MarkdownFileStructureGenerator generator = TestVaults.exporter();
+        generator.setParallelism(4);
+        generator.generateFileStructure(vault.toString());
+
+        assertEquals(List.of(), TestVaults.differences(TestVaults.resource("golden/expected"),
+                generator.getExportDirectory()));
+    }
+
+    @Test
+    void incrementalExportsMatchTheBaseline() throws IOException {
+        Path vault = TestVaults.copySampleVault(directory);
+        MarkdownFileStructureGenerator generator = TestVaults.exporter();
+        generator.setIncremental(true);
+        generator.generateFileStructure(vault.toString());
+        assertEquals(List.of(), TestVaults.differences(TestVaults.resource("golden/expected"),
+                generator.getExportDirectory()));
+
+        generator.generateFileStructure(vault.toString());
+        assertEquals(List.of(), TestVaults.differences(TestVaults.resource("golden/expected"),
+                generator.getExportDirectory()));
+    }
+
+    @Test
+    void sidebarMatchesTheBaseline() throws IOException {
+        Path vault = TestVaults.copySampleVault(directory);
+
+        assertEquals(Files.readString(TestVaults.resource("golden/sidebar.txt")),
+                WebsiteSidebarTextGenerator.generateSidebarText(vault.toString()));
+    }
+}
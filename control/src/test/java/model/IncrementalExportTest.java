@@ -0,0 +1,87 @@
+package model;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An incremental export after changes to the vault must write what a full export of the changed vault writes,
+ * and its manifest must list exactly the files of the vault.
+ */
+class IncrementalExportTest {
+
+    @TempDir
+    Path directory;
+
+    private Path vault;
+    private MarkdownFileStructureGenerator generator;
+
+    @BeforeEach
+    void exportSampleVault() throws IOException {
+        vault = TestVaults.copySampleVault(directory);
+        generator = TestVaults.exporter();
+        generator.setIncremental(true);
+        generator.setParallelism(4);
+        generator.generateFileStructure(vault.toString());
+    }
+
+    @Test
+    void renamedNoteReplacesItsOldExport() throws IOException {
+        Files.move(vault.resolve("2 Basics/Basics Note.md"), vault.resolve("2 Basics/Renamed Note.md"));
+
+        generator.generateFileStructure(vault.toString());
+
+        Path export = generator.getExportDirectory();
+        assertFalse(Files.exists(export.resolve("2 Basics/Basics Note.md")));
+        assertTrue(Files.exists(export.resolve("2 Basics/Renamed Note.md")));
+        ExportManifest manifest = ExportManifest.load(export.resolve(ExportManifest.FILE_NAME));
+        assertFalse(manifest.relativePaths().contains("2 Basics/Basics Note.md"));
+        assertTrue(manifest.relativePaths().contains("2 Basics/Renamed Note.md"));
+        // The links of other notes to the old name no longer resolve
+        assertEquals(List.of(), TestVaults.differences(fullExport(), export));
+    }
+
+    @Test
+    void deletedFilesAreRemovedFromTheExport() throws IOException {
+        Files.delete(vault.resolve("10 Later/pic.jpg"));
+        Files.delete(vault.resolve("2 Basics/1 Sub/Empty.md"));
+
+        generator.generateFileStructure(vault.toString());
+
+        Path export = generator.getExportDirectory();
+        assertFalse(Files.exists(export.resolve("10 Later/pic.jpg")));
+        assertFalse(Files.exists(export.resolve("2 Basics/1 Sub/Empty.md")));
+        ExportManifest manifest = ExportManifest.load(export.resolve(ExportManifest.FILE_NAME));
+        assertFalse(manifest.relativePaths().contains("10 Later/pic.jpg"));
+        assertFalse(manifest.relativePaths().contains("2 Basics/1 Sub/Empty.md"));
+        assertEquals(List.of(), TestVaults.differences(fullExport(), export));
+    }
+
+    @Test
+    void addedAndEditedNotesAreExported() throws IOException {
+        TestVaults.write(vault.resolve("2 Basics/Basics Note.md"), "# Basics\nNow links to [[New Note]]\n");
+        TestVaults.write(vault.resolve("10 Later/New Note.md"), "# New\n");
+
+        generator.generateFileStructure(vault.toString());
+
+        Path export = generator.getExportDirectory();
+        assertTrue(Files.readString(export.resolve("2 Basics/Basics Note.md"))
+                .contains("[New Note](</10 Later/New Note.md>)"));
+        ExportManifest manifest = ExportManifest.load(export.resolve(ExportManifest.FILE_NAME));
+        assertTrue(manifest.relativePaths().contains("10 Later/New Note.md"));
+        assertEquals(List.of(), TestVaults.differences(fullExport(), export));
+    }
+
+    private Path fullExport() throws IOException {
+        return TestVaults.exportInFull(vault, directory.resolve("full"));
+    }
+}
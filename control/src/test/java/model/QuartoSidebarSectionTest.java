@@ -0,0 +1,125 @@
+package model;
+
+import model.WebsiteSidebarTextGenerator.ConfigurationUpdate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class QuartoSidebarSectionTest {
+
+    private static final String SIDEBAR = """
+                  - section: "1 Intro"
+                    href: 1 Intro/1 Intro.md
+                    contents:
+                  - "2 Basics/Note.md"
+            """;
+
+    private static final String CONFIGURATION = """
+            project:
+              type: website
+
+            website:
+              title: "Notes"
+              # Written by the export
+              sidebar:
+                style: docked
+                contents:
+                  - old.md
+                  - section: "Old"
+                    contents:
+                      - old/a.md
+
+                search: true
+            format:
+              html: default
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replacesOnlyTheSidebarContents() {
+        assertEquals("""
+                project:
+                  type: website
+
+                website:
+                  title: "Notes"
+                  # Written by the export
+                  sidebar:
+                    style: docked
+                    contents:
+                      - section: "1 Intro"
+                        href: 1 Intro/1 Intro.md
+                        contents:
+                      - "2 Basics/Note.md"
+
+                    search: true
+                format:
+                  html: default
+                """, QuartoSidebarSection.replaceContents(CONFIGURATION, SIDEBAR, 6));
+    }
+
+    @Test
+    void movesTheSidebarToTheIndentationOfTheKey() {
+        String configuration = "website:\n  sidebar:\n    contents: auto\n  navbar: true\n";
+
+        assertEquals("""
+                website:
+                  sidebar:
+                    contents:
+                      - section: "1 Intro"
+                        href: 1 Intro/1 Intro.md
+                        contents:
+                      - "2 Basics/Note.md"
+                  navbar: true
+                """, QuartoSidebarSection.replaceContents(configuration, SIDEBAR, 6));
+    }
+
+    @Test
+    void keepsWindowsLineEnds() {
+        String configuration = CONFIGURATION.replace("\n", "\r\n");
+
+        assertEquals(QuartoSidebarSection.replaceContents(CONFIGURATION, SIDEBAR, 6).replace("\n", "\r\n"),
+                QuartoSidebarSection.replaceContents(configuration, SIDEBAR, 6));
+    }
+
+    @Test
+    void writesAnEmptyListForAnEmptySidebar() {
+        assertEquals("sidebar:\n  contents: []\nformat: html\n",
+                QuartoSidebarSection.replaceContents("sidebar:\n  contents:\n    - a.md\nformat: html\n", "", 6));
+    }
+
+    @Test
+    void findsNoSectionOutsideTheSidebar() {
+        assertNull(QuartoSidebarSection.replaceContents("project:\n  type: website\n", SIDEBAR, 6));
+        assertNull(QuartoSidebarSection.replaceContents("sidebar:\n  style: docked\nbook:\n  contents: auto\n",
+                SIDEBAR, 6));
+        assertNull(QuartoSidebarSection.replaceContents("# sidebar:\n#   contents: auto\n", SIDEBAR, 6));
+    }
+
+    @Test
+    void updatesTheConfigurationOfTheVaultOnce() throws IOException {
+        Path vault = TestVaults.copySampleVault(directory);
+        Path configurationFile = vault.resolve(WebsiteSidebarTextGenerator.QUARTO_CONFIGURATION_FILE_NAME);
+        Files.writeString(configurationFile, CONFIGURATION);
+        String sidebar = Files.readString(TestVaults.resource("golden/sidebar.txt"));
+
+        WebsiteSidebarTextGenerator.SidebarUpdate update = WebsiteSidebarTextGenerator.updateSidebar(vault.toString(),
+                null);
+
+        assertEquals(sidebar, update.sidebar());
+        assertEquals(ConfigurationUpdate.UPDATED, update.configuration());
+        assertEquals(QuartoSidebarSection.replaceContents(CONFIGURATION, sidebar, 6),
+                Files.readString(configurationFile));
+        assertEquals(ConfigurationUpdate.UNCHANGED,
+                WebsiteSidebarTextGenerator.updateSidebar(vault.toString(), null).configuration());
+    }
+}
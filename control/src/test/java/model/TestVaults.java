@@ -0,0 +1,138 @@
+package model;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * The sample vault of the tests and helpers to export it and compare export directories.
+ * <p>
+ * {@code golden/vault} is the sample vault, {@code golden/expected} is what the export before the incremental,
+ * parallel and rule based conversion wrote for it, and {@code golden/sidebar.txt} the sidebar it generated.
+ */
+final class TestVaults {
+
+    // The export writes the modification date into every note, the copies all get the same one
+    static final FileTime MODIFIED = FileTime.from(Instant.parse("2024-01-02T12:00:00Z"));
+
+    static final MessageObserver SILENT = new MessageObserver() {
+        @Override
+        public void notify(String updateText) {
+        }
+
+        @Override
+        public boolean isEnabled(MessageEvent.Level level) {
+            return false;
+        }
+    };
+
+    private TestVaults() {
+    }
+
+    static Path resource(String name) {
+        URL url = TestVaults.class.getClassLoader().getResource(name);
+        if (url == null) {
+            throw new IllegalStateException("Missing test resource " + name);
+        }
+        try {
+            return Path.of(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies the sample vault into {@code directory} and returns the copy.
+     */
+    static Path copySampleVault(Path directory) throws IOException {
+        Path source = resource("golden/vault");
+        Path vault = directory.resolve("vault");
+        try (Stream<Path> files = Files.walk(source)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Path copy = vault.resolve(source.relativize(file).toString());
+                if (Files.isDirectory(file)) {
+                    Files.createDirectories(copy);
+                } else {
+                    Files.copy(file, copy);
+                    Files.setLastModifiedTime(copy, MODIFIED);
+                }
+            }
+        }
+        return vault;
+    }
+
+    static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, MODIFIED);
+    }
+
+    static MarkdownFileStructureGenerator exporter() {
+        return new MarkdownFileStructureGenerator(SILENT);
+    }
+
+    /**
+     * Exports {@code vault} in full into {@code target} and returns the export directory.
+     */
+    static Path exportInFull(Path vault, Path target) throws IOException {
+        MarkdownFileStructureGenerator generator = exporter();
+        generator.setTargetDirectory(target);
+        generator.generateFileStructure(vault.toString());
+        return generator.getExportDirectory();
+    }
+
+    /**
+     * Files below {@code directory} by their relative path, without the bookkeeping files of the export.
+     */
+    static TreeMap<String, byte[]> contents(Path directory) throws IOException {
+        TreeMap<String, byte[]> contents = new TreeMap<>();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String relativePath = directory.relativize(file).toString().replace('\\', '/');
+                if (Files.isRegularFile(file) && !isBookkeeping(relativePath)) {
+                    contents.put(relativePath, Files.readAllBytes(file));
+                }
+            }
+        }
+        return contents;
+    }
+
+    private static boolean isBookkeeping(String relativePath) {
+        return relativePath.startsWith(".export") || relativePath.startsWith(".asset");
+    }
+
+    /**
+     * The relative paths whose contents differ between the two directories, empty if they hold the same files.
+     */
+    static List<String> differences(Path expected, Path actual) {
+        try {
+            TreeMap<String, byte[]> expectedContents = contents(expected);
+            TreeMap<String, byte[]> actualContents = contents(actual);
+            List<String> differences = new ArrayList<>();
+            for (var entry : expectedContents.entrySet()) {
+                byte[] actualBytes = actualContents.remove(entry.getKey());
+                if (actualBytes == null) {
+                    differences.add("missing " + entry.getKey());
+                } else if (!Arrays.equals(entry.getValue(), actualBytes)) {
+                    differences.add("changed " + entry.getKey());
+                }
+            }
+            for (String extra : actualContents.keySet()) {
+                differences.add("unexpected " + extra);
+            }
+            return differences;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}